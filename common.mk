@@ -18,10 +18,6 @@
 DEVICE_PACKAGE_OVERLAYS += \
     $(LOCAL_PATH)/overlay
 
-# Doze mode
+# Doze and pocket mode
 PRODUCT_PACKAGES += \
     OneplusDoze
-
-# Fingerprint sensor
-PRODUCT_PACKAGES += \
-    OneplusPocketMode
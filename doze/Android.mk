@@ -17,7 +17,8 @@ LOCAL_STATIC_ANDROID_LIBRARIES := \
     androidx.preference_preference
 
 LOCAL_STATIC_JAVA_LIBRARIES := \
-    com.evervolv.platform.internal
+    com.evervolv.platform.internal \
+    org.lineageos.sensorhub
 
 LOCAL_RESOURCE_DIR := \
     $(LOCAL_PATH)/res \
@@ -27,4 +28,22 @@ LOCAL_PROGUARD_FLAG_FILES := proguard.flags
 
 include $(BUILD_PACKAGE)
 
+# Framework-free gesture logic, so that it can be exercised and traces can
+# be replayed on a host JVM. Host-only tools live in host/src.
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := OneplusDozeEngine-host
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_SRC_FILES := \
+    src/org/lineageos/settings/doze/GestureClock.java \
+    src/org/lineageos/settings/doze/GestureEngine.java \
+    src/org/lineageos/settings/doze/GestureRule.java \
+    src/org/lineageos/settings/doze/PickupRule.java \
+    src/org/lineageos/settings/doze/ProximityRule.java \
+    src/org/lineageos/settings/doze/VirtualGestureClock.java \
+    host/src/org/lineageos/settings/doze/TraceReplayer.java
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
 include $(call all-makefiles-under,$(LOCAL_PATH))
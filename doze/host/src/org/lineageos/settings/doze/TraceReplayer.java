@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feeds a trace written by org.lineageos.sensorhub.SensorTraceRecorder
+ * through a {@link GestureEngine}, in recording order. Only depends on
+ * java.*, so field traces can be replayed on a host:
+ *
+ *   java org.lineageos.settings.doze.TraceReplayer trace.bin [handwave] [pocket]
+ */
+public class TraceReplayer {
+
+    // Must match org.lineageos.sensorhub.SensorTraceRecorder
+    private static final int MAGIC = 0x53485452;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 16;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_COUNT = 16;
+    private static final int SOURCE_SCREEN_ON = 1;
+    private static final int SOURCE_SCREEN_OFF = 2;
+    private static final int SOURCE_PROCESS_START = 4;
+
+    // Must match PickupSensor.SENSOR_TYPE and PocketSensor.SENSOR_TYPE
+    private static final int SOURCE_PICKUP = "com.oneplus.sensor.pickup".hashCode();
+    private static final int SOURCE_POCKET = "com.oneplus.sensor.pocket".hashCode();
+
+    public interface Listener {
+        void onPulse(long timestampNs, GestureRule rule);
+    }
+
+    /**
+     * Replays the trace and reports every pulse the engine decides on.
+     *
+     * @return the number of records replayed
+     */
+    public static long replay(ByteBuffer trace, GestureEngine engine, VirtualGestureClock clock,
+            Listener listener) {
+        if (trace.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a sensor trace");
+        }
+        int capacity = trace.getInt(OFFSET_CAPACITY);
+        long count = trace.getLong(OFFSET_COUNT);
+        long first = Math.max(0, count - capacity);
+
+        boolean screenOn = true;
+        for (long i = first; i < count; i++) {
+            int offset = HEADER_SIZE + (int) (i % capacity) * RECORD_SIZE;
+            long timestampNs = trace.getLong(offset);
+            int source = trace.getInt(offset + 8);
+            float value = trace.getFloat(offset + 12);
+            // Time moves as recorded
+            clock.setNs(timestampNs);
+
+            int sensorId;
+            if (source == SOURCE_PICKUP) {
+                sensorId = GestureEngine.SENSOR_PICKUP;
+            } else if (source == SOURCE_POCKET) {
+                sensorId = GestureEngine.SENSOR_POCKET;
+            } else {
+                if (source == SOURCE_SCREEN_OFF && screenOn) {
+                    engine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+                    engine.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+                }
+                if (source == SOURCE_SCREEN_ON || source == SOURCE_SCREEN_OFF) {
+                    screenOn = source == SOURCE_SCREEN_ON;
+                } else if (source == SOURCE_PROCESS_START) {
+                    // The restarted service enables its sensors on the next screen off
+                    screenOn = true;
+                }
+                continue;
+            }
+
+            GestureRule rule = engine.onEvent(timestampNs, sensorId, value);
+            if (rule != null) {
+                listener.onPulse(timestampNs, rule);
+            }
+        }
+        return count - first;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplayer <trace> [handwave] [pocket]");
+            System.exit(1);
+        }
+        boolean handwave = false;
+        boolean pocket = false;
+        for (int i = 1; i < args.length; i++) {
+            handwave |= "handwave".equals(args[i]);
+            pocket |= "pocket".equals(args[i]);
+        }
+        final boolean handwaveEnabled = handwave;
+        final boolean pocketEnabled = pocket;
+
+        VirtualGestureClock clock = new VirtualGestureClock();
+        GestureEngine engine = new GestureEngine(clock);
+        engine.addRule(new PickupRule());
+        engine.addRule(new ProximityRule(() -> handwaveEnabled, () -> pocketEnabled));
+
+        try (RandomAccessFile file = new RandomAccessFile(args[0], "r")) {
+            ByteBuffer trace = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    0, file.length());
+            long records = replay(trace, engine, clock, (timestampNs, rule) ->
+                    System.out.println(timestampNs + " pulse " + rule.getName()));
+            System.out.println(records + " records replayed");
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.lineageos.pocketmode;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
@@ -27,7 +28,8 @@ public class BootCompletedReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(final Context context, Intent intent) {
-        Log.d(TAG, "Starting");
+        Log.d(TAG, "Starting on " + intent.getAction() + " at "
+                + SystemClock.elapsedRealtime() + "ms since boot");
         context.startService(new Intent(context, PocketModeService.class));
     }
 }
@@ -22,27 +22,56 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.IBinder;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import org.lineageos.sensorhub.SensorHub;
+import org.lineageos.sensorhub.SensorTraceRecorder;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 public class PocketModeService extends Service {
     private static final String TAG = "PocketModeService";
     private static final boolean DEBUG = false;
 
     private static final String ACTION_POCKETMODE_UPDATE = "org.lineageos.pocketmode.UPDATE";
-    private static List<BroadcastReceiver> mReceiverList = new ArrayList<BroadcastReceiver>();
 
+    private final ReceiverRegistry mReceivers = new ReceiverRegistry(this);
+
+    // Created on the first screen off after pocket mode got enabled
     private PocketSensor mPocketSensor;
 
+    // Start-up timings, shown in dumpsys
+    private long mCreatedAtMs;
+    private long mSensorCreatedAtMs;
+    private long mSensorCreateDurationUs;
+
     @Override
     public void onCreate() {
         if (DEBUG) Log.d(TAG, "Creating service");
+        IntentFilter updateFilter = new IntentFilter(ACTION_POCKETMODE_UPDATE);
+        mReceivers.register(mUpdateReceiver, updateFilter);
+        mCreatedAtMs = SystemClock.elapsedRealtime();
+    }
+
+    private void ensureSensorCreated() {
+        if (mPocketSensor != null) {
+            return;
+        }
+        Trace.beginSection("PocketModeService.createSensor");
+        long start = SystemClock.elapsedRealtimeNanos();
         mPocketSensor = new PocketSensor(this);
+        mSensorCreatedAtMs = SystemClock.elapsedRealtime();
+        mSensorCreateDurationUs = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        Trace.endSection();
+    }
 
-        IntentFilter updateFilter = new IntentFilter(ACTION_POCKETMODE_UPDATE);
-        registerReceiver(mUpdateReceiver, updateFilter);
+    private void disableSensor() {
+        if (mPocketSensor != null) {
+            mPocketSensor.disable();
+        }
     }
 
     @Override
@@ -55,11 +84,8 @@ public class PocketModeService extends Service {
     public void onDestroy() {
         if (DEBUG) Log.d(TAG, "Destroying service");
         super.onDestroy();
-        if (mReceiverList.contains(mScreenStateReceiver)) {
-            this.unregisterReceiver(mScreenStateReceiver);
-        }
-        this.unregisterReceiver(mUpdateReceiver);
-        mPocketSensor.disable();
+        mReceivers.unregisterAll();
+        disableSensor();
     }
 
     @Override
@@ -67,13 +93,27 @@ public class PocketModeService extends Service {
         return null;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("Start-up: created at " + mCreatedAtMs + "ms since boot");
+        mReceivers.dump(pw);
+        if (mPocketSensor != null) {
+            pw.println("  sensor created at " + mSensorCreatedAtMs + "ms since boot in "
+                    + mSensorCreateDurationUs + "us");
+            mPocketSensor.dump(pw);
+        } else {
+            pw.println("  sensor not created yet");
+        }
+    }
+
     private void onDeviceUnlocked() {
         if (DEBUG) Log.d(TAG, "Device unlocked");
-        mPocketSensor.disable();
+        disableSensor();
     }
 
     private void onDisplayOff() {
         if (DEBUG) Log.d(TAG, "Display off");
+        ensureSensorCreated();
         mPocketSensor.enable();
     }
 
@@ -81,8 +121,15 @@ public class PocketModeService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(Intent.ACTION_USER_PRESENT)) {
+                if (mPocketSensor != null) {
+                    SensorHub.getInstance(context).recordBroadcast(
+                            SensorTraceRecorder.SOURCE_USER_PRESENT);
+                }
                 onDeviceUnlocked();
             } else if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
+                ensureSensorCreated();
+                SensorHub.getInstance(context).recordBroadcast(
+                        SensorTraceRecorder.SOURCE_SCREEN_OFF);
                 onDisplayOff();
             }
         }
@@ -95,12 +142,9 @@ public class PocketModeService extends Service {
                 IntentFilter screenStateFilter = new IntentFilter();
                 screenStateFilter.addAction(Intent.ACTION_SCREEN_OFF);
                 screenStateFilter.addAction(Intent.ACTION_USER_PRESENT);
-                registerReceiver(mScreenStateReceiver, screenStateFilter);
-                mReceiverList.add(mScreenStateReceiver);
-            } else if (mReceiverList.contains(mScreenStateReceiver)) {
-                unregisterReceiver(mScreenStateReceiver);
-                mReceiverList.remove(mScreenStateReceiver);
-                mPocketSensor.disable();
+                mReceivers.register(mScreenStateReceiver, screenStateFilter);
+            } else if (mReceivers.unregister(mScreenStateReceiver)) {
+                disableSensor();
             }
         }
     };
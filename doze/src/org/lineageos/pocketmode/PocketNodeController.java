@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import org.lineageos.settings.doze.R;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives every pocket-lock node listed in config_pocketModeNodes. State
+ * changes are applied to all nodes in one batch on the given handler;
+ * changes requested before the batch runs are coalesced into the last one.
+ */
+public class PocketNodeController {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "PocketNodeController";
+
+    private final Handler mHandler;
+    private final SysfsWriter[] mWriters;
+
+    private boolean mInPocket;
+    private boolean mPending;
+
+    private final Runnable mApplyRunnable = this::apply;
+
+    public PocketNodeController(Context context, Handler handler) {
+        mHandler = handler;
+
+        List<SysfsWriter> writers = new ArrayList<>();
+        for (String path : context.getResources().getStringArray(R.array.config_pocketModeNodes)) {
+            if (new File(path).exists()) {
+                writers.add(new SysfsWriter(path));
+            } else {
+                Log.w(TAG, "Skipping missing pocket mode node " + path);
+            }
+        }
+        mWriters = writers.toArray(new SysfsWriter[writers.size()]);
+    }
+
+    public synchronized void setInPocket(boolean inPocket) {
+        mInPocket = inPocket;
+        if (!mPending) {
+            mPending = true;
+            mHandler.post(mApplyRunnable);
+        }
+    }
+
+    private void apply() {
+        boolean inPocket;
+        synchronized (this) {
+            mPending = false;
+            inPocket = mInPocket;
+        }
+        if (DEBUG) Log.d(TAG, "Applying in pocket: " + inPocket);
+        for (SysfsWriter writer : mWriters) {
+            if (!writer.write(inPocket)) {
+                Log.e(TAG, writer.getPath() + " is not writable!");
+            }
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Pocket mode nodes:");
+        for (SysfsWriter writer : mWriters) {
+            writer.dump(pw);
+        }
+    }
+}
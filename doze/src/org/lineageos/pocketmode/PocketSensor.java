@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *               2018-2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.util.Log;
+
+import org.lineageos.sensorhub.SensorHub;
+import org.lineageos.settings.doze.R;
+
+import java.io.PrintWriter;
+
+public class PocketSensor implements SensorEventListener {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "PocketSensor";
+
+    private SensorHub mSensorHub;
+    private Sensor mSensor;
+    private Context mContext;
+    private PocketNodeController mNodeController;
+    private int mMaxReportLatencyUs;
+
+    public PocketSensor(Context context) {
+        mContext = context;
+        mSensorHub = SensorHub.getInstance(mContext);
+        mNodeController = new PocketNodeController(mContext, mSensorHub.getHandler());
+        mSensor = mSensorHub.getSensor("com.oneplus.sensor.pocket");
+        // The registration is shared with the pocket gesture of DozeService.
+        // Asking for no batching would force it on the gesture as well.
+        mMaxReportLatencyUs = mContext.getResources()
+                .getInteger(R.integer.config_dozeSensorMaxReportLatencyMs) * 1000;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        mNodeController.setInPocket(event.values[0] == 1);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        /* Empty */
+    }
+
+    protected void enable() {
+        if (DEBUG) Log.d(TAG, "Enabling");
+        mSensorHub.setEnabled(mSensor, this, true, mMaxReportLatencyUs);
+    }
+
+    protected void disable() {
+        if (DEBUG) Log.d(TAG, "Disabling");
+        mSensorHub.setEnabled(mSensor, this, false);
+        // Applied on the hub thread once the sensor has been unsubscribed
+        mNodeController.setInPocket(false);
+    }
+
+    protected void dump(PrintWriter pw) {
+        mNodeController.dump(pw);
+    }
+}
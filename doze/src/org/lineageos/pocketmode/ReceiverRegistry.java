@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.IntentFilter;
+
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tracks the receivers a component registered, so that registering a
+ * receiver twice or unregistering one that isn't registered is a no-op,
+ * and everything can be torn down when the component goes away.
+ * Must be used from the main thread.
+ */
+class ReceiverRegistry {
+
+    private final Context mContext;
+    private final Set<BroadcastReceiver> mRegistered = new HashSet<>();
+
+    ReceiverRegistry(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Registers the receiver unless it already is.
+     *
+     * @return whether it was registered by this call
+     */
+    boolean register(BroadcastReceiver receiver, IntentFilter filter) {
+        if (!mRegistered.add(receiver)) {
+            return false;
+        }
+        mContext.registerReceiver(receiver, filter);
+        return true;
+    }
+
+    /**
+     * Unregisters the receiver if it is registered.
+     *
+     * @return whether it was unregistered by this call
+     */
+    boolean unregister(BroadcastReceiver receiver) {
+        if (!mRegistered.remove(receiver)) {
+            return false;
+        }
+        mContext.unregisterReceiver(receiver);
+        return true;
+    }
+
+    boolean isRegistered(BroadcastReceiver receiver) {
+        return mRegistered.contains(receiver);
+    }
+
+    void unregisterAll() {
+        for (BroadcastReceiver receiver : mRegistered) {
+            mContext.unregisterReceiver(receiver);
+        }
+        mRegistered.clear();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Registered receivers: " + mRegistered.size());
+    }
+}
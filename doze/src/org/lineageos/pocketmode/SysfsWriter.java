@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a boolean to a sysfs node through a channel that is kept open,
+ * skipping writes that wouldn't change the node. Keeps latency and error
+ * counters for dumpsys.
+ */
+public class SysfsWriter {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "SysfsWriter";
+
+    private static final int VALUE_UNKNOWN = -1;
+
+    private final String mPath;
+    private final Path mFile;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(2);
+
+    private FileChannel mChannel;
+    private int mLastValue = VALUE_UNKNOWN;
+
+    private long mWriteCount;
+    private long mSkipCount;
+    private long mErrorCount;
+    private long mWriteTimeNs;
+    private long mMaxWriteTimeNs;
+
+    public SysfsWriter(String path) {
+        mPath = path;
+        mFile = Paths.get(path);
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public synchronized boolean write(boolean value) {
+        int intValue = value ? 1 : 0;
+        if (intValue == mLastValue) {
+            if (DEBUG) Log.d(TAG, "Skipping unchanged write to " + mPath);
+            mSkipCount++;
+            return true;
+        }
+
+        long start = System.nanoTime();
+        boolean written = doWrite(intValue);
+        long elapsed = System.nanoTime() - start;
+
+        mWriteCount++;
+        mWriteTimeNs += elapsed;
+        mMaxWriteTimeNs = Math.max(mMaxWriteTimeNs, elapsed);
+        if (!written) {
+            mErrorCount++;
+        }
+        return written;
+    }
+
+    private boolean doWrite(int intValue) {
+        // Sysfs nodes stay put while their driver is bound, so the channel
+        // is only reopened after a write through it failed. Retry once on
+        // the freshly opened one.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (mChannel == null) {
+                    mChannel = FileChannel.open(mFile, StandardOpenOption.WRITE);
+                }
+                mBuffer.clear();
+                mBuffer.put((byte) ('0' + intValue));
+                mBuffer.put((byte) '\n');
+                mBuffer.flip();
+                while (mBuffer.hasRemaining()) {
+                    mChannel.write(mBuffer, mBuffer.position());
+                }
+                mLastValue = intValue;
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write " + mPath, e);
+                close();
+            }
+        }
+        return false;
+    }
+
+    public synchronized void close() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+            mChannel = null;
+        }
+        mLastValue = VALUE_UNKNOWN;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("  " + mPath + ": writes=" + mWriteCount + " skipped=" + mSkipCount
+                + " errors=" + mErrorCount
+                + " avg=" + (mWriteCount > 0 ? mWriteTimeNs / mWriteCount : 0) + "ns"
+                + " max=" + mMaxWriteTimeNs + "ns");
+    }
+}
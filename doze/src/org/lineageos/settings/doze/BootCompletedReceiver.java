@@ -20,6 +20,7 @@ package org.lineageos.settings.doze;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
@@ -29,7 +30,14 @@ public class BootCompletedReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(final Context context, Intent intent) {
-        if (DEBUG) Log.d(TAG, "Received boot completed intent");
-        Utils.checkDozeService(context);
+        if (DEBUG) Log.d(TAG, "Received " + intent.getAction() + " at "
+                + SystemClock.elapsedRealtime() + "ms since boot");
+        // LOCKED_BOOT_COMPLETED starts the service before the user unlocks,
+        // BOOT_COMPLETED follows once credential storage is available
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            Utils.migratePreferences(context);
+        }
+        // Starts or stops DozeService now and whenever the settings change
+        DozeConfigMonitor.start(context);
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.provider.Settings.Secure.DOZE_ALWAYS_ON;
+import static android.provider.Settings.Secure.DOZE_ENABLED;
+
+/**
+ * Watches everything DozeService depends on, the doze, AOD and gesture
+ * settings of the user in the foreground, no matter who changes them.
+ * Bursts of changes are merged into a single update, which starts or stops
+ * the service and lets a running service reconfigure its sensors in place.
+ *
+ * Lives for as long as the process and is only used on the main thread.
+ */
+final class DozeConfigMonitor {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "DozeConfigMonitor";
+
+    // Long enough to merge the writes made by a single toggle
+    private static final long DEBOUNCE_MS = 100;
+
+    interface Listener {
+        void onGestureConfigChanged(int userId, GestureConfig config);
+    }
+
+    private static DozeConfigMonitor sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private int mUserId;
+    private GestureConfig mGestureConfig;
+
+    private final ContentObserver mSettingsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleUpdate();
+        }
+    };
+
+    // The new user may want DozeService when the previous one didn't
+    private final BroadcastReceiver mUserSwitchReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            scheduleUpdate();
+        }
+    };
+
+    private final Runnable mUpdateRunnable = this::update;
+
+    private DozeConfigMonitor(Context context) {
+        mContext = context;
+
+        // AOD and gestures are stored per user, so changes made for any user count
+        observe(DOZE_ENABLED);
+        observe(DOZE_ALWAYS_ON);
+        for (String setting : Utils.GESTURE_SETTINGS) {
+            observe(setting);
+        }
+        mContext.registerReceiver(mUserSwitchReceiver,
+                new IntentFilter(Intent.ACTION_USER_SWITCHED));
+
+        mUserId = ActivityManager.getCurrentUser();
+        mGestureConfig = Utils.getGestureConfigForUser(mContext, mUserId);
+    }
+
+    /**
+     * Returns the monitor, starting it on first use. The service state is
+     * brought in line with the current configuration right away.
+     */
+    static DozeConfigMonitor start(Context context) {
+        if (sInstance == null) {
+            sInstance = new DozeConfigMonitor(context.getApplicationContext());
+            sInstance.update();
+        }
+        return sInstance;
+    }
+
+    private void observe(String setting) {
+        mContext.getContentResolver().registerContentObserver(
+                Settings.Secure.getUriFor(setting), false, mSettingsObserver,
+                UserHandle.USER_ALL);
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void scheduleUpdate() {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mHandler.postDelayed(mUpdateRunnable, DEBOUNCE_MS);
+    }
+
+    private void update() {
+        if (DEBUG) Log.d(TAG, "Configuration changed");
+        int userId = ActivityManager.getCurrentUser();
+        GestureConfig config = Utils.getGestureConfigForUser(mContext, userId);
+        // Starting an already running service or stopping a stopped one is a no-op
+        Utils.checkDozeService(mContext, config);
+
+        if (userId == mUserId && config.equals(mGestureConfig)) {
+            return;
+        }
+        mUserId = userId;
+        mGestureConfig = config;
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onGestureConfigChanged(userId, config);
+        }
+    }
+}
@@ -17,30 +17,108 @@
 
 package org.lineageos.settings.doze;
 
+import android.app.ActivityManager;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.UserHandle;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
+import android.util.SparseArray;
 
-public class DozeService extends Service {
+import org.lineageos.sensorhub.SensorHub;
+import org.lineageos.sensorhub.SensorTraceRecorder;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class DozeService extends Service implements ScreenStateDebouncer.Callback,
+        DozeConfigMonitor.Listener {
     private static final String TAG = "DozeService";
     private static final boolean DEBUG = false;
 
+    private GestureClock mClock;
+    private GestureEngine mGestureEngine;
+    private ScreenStateDebouncer mScreenStateDebouncer;
+
+    // Created on the first screen off with a gesture enabled, so that the
+    // service costs next to nothing at boot
+    private SensorHub mSensorHub;
     private PickupSensor mPickupSensor;
     private PocketSensor mPocketSensor;
+    private PulseDispatcher mPulseDispatcher;
+    private GestureWakeLock mWakeLock;
+
+    // Gesture config of every user seen since the service started. The one
+    // of the current user is swapped in as a whole on a user switch, while
+    // the sensors stay registered with the hub.
+    private final SparseArray<GestureConfig> mUserConfigs = new SparseArray<>();
+    private volatile GestureConfig mGestureConfig;
+    private int mCurrentUserId;
+
+    private boolean mDisplayOff;
+    private boolean mPickupEnabled;
+    private boolean mPocketEnabled;
+
+    // Start-up timings, shown in dumpsys
+    private long mCreatedAtMs;
+    private long mCreateDurationUs;
+    private long mSensorsCreatedAtMs;
+    private long mSensorsCreateDurationUs;
 
     @Override
     public void onCreate() {
         if (DEBUG) Log.d(TAG, "Creating service");
-        mPickupSensor = new PickupSensor(this);
-        mPocketSensor = new PocketSensor(this);
+        Trace.beginSection("DozeService.onCreate");
+        long start = SystemClock.elapsedRealtimeNanos();
+
+        mClock = new SystemGestureClock(Utils.getMaxReportLatencyUs(this));
+        mGestureEngine = new GestureEngine(mClock);
+        mGestureEngine.addRule(new PickupRule());
+        mCurrentUserId = ActivityManager.getCurrentUser();
+        mGestureConfig = Utils.getGestureConfigForUser(this, mCurrentUserId);
+        mUserConfigs.put(mCurrentUserId, mGestureConfig);
+
+        mGestureEngine.addRule(new ProximityRule(
+                () -> mGestureConfig.isHandwaveEnabled(),
+                () -> mGestureConfig.isPocketEnabled()));
+        mScreenStateDebouncer = new ScreenStateDebouncer(new Handler(),
+                getResources().getInteger(R.integer.config_dozeScreenStateSettleMs), this,
+                mClock);
 
         IntentFilter screenStateFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
         screenStateFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        screenStateFilter.addAction(Intent.ACTION_USER_SWITCHED);
         registerReceiver(mScreenStateReceiver, screenStateFilter);
+        DozeConfigMonitor.start(this).addListener(this);
+
+        mCreatedAtMs = SystemClock.elapsedRealtime();
+        mCreateDurationUs = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        Trace.endSection();
+    }
+
+    private void ensureSensorsCreated() {
+        if (mSensorHub != null) {
+            return;
+        }
+        Trace.beginSection("DozeService.createSensors");
+        long start = SystemClock.elapsedRealtimeNanos();
+
+        mSensorHub = SensorHub.getInstance(this);
+        mPulseDispatcher = new PulseDispatcher(this, mClock);
+        mWakeLock = new GestureWakeLock(this, mClock);
+        mPickupSensor = new PickupSensor(this, mGestureEngine, mPulseDispatcher, mWakeLock);
+        mPocketSensor = new PocketSensor(this, mGestureEngine, mPulseDispatcher, mWakeLock);
+
+        mSensorsCreatedAtMs = SystemClock.elapsedRealtime();
+        mSensorsCreateDurationUs = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        Trace.endSection();
+        if (DEBUG) Log.d(TAG, "Created sensors in " + mSensorsCreateDurationUs + "us");
     }
 
     @Override
@@ -54,8 +132,10 @@ public class DozeService extends Service {
         if (DEBUG) Log.d(TAG, "Destroying service");
         super.onDestroy();
         this.unregisterReceiver(mScreenStateReceiver);
-        mPickupSensor.disable();
-        mPocketSensor.disable();
+        DozeConfigMonitor.start(this).removeListener(this);
+        mScreenStateDebouncer.cancel();
+        mDisplayOff = false;
+        updateSensors(mGestureConfig);
     }
 
     @Override
@@ -63,25 +143,94 @@ public class DozeService extends Service {
         return null;
     }
 
-    private void onDisplayOn() {
-        if (DEBUG) Log.d(TAG, "Display on");
-        if (Utils.isPickUpEnabled(this)) {
-            mPickupSensor.disable();
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("Start-up: created at " + mCreatedAtMs + "ms since boot in "
+                + mCreateDurationUs + "us");
+        if (mSensorHub != null) {
+            pw.println("  sensors created at " + mSensorsCreatedAtMs + "ms since boot in "
+                    + mSensorsCreateDurationUs + "us");
+        } else {
+            pw.println("  sensors not created yet");
+        }
+        pw.println("Current user: " + mCurrentUserId);
+        for (int i = 0; i < mUserConfigs.size(); i++) {
+            GestureConfig config = mUserConfigs.valueAt(i);
+            pw.println("  user " + mUserConfigs.keyAt(i) + ": pickUp=" + config.isPickUpEnabled()
+                    + " handwave=" + config.isHandwaveEnabled()
+                    + " pocket=" + config.isPocketEnabled());
         }
-        if (Utils.isHandwaveGestureEnabled(this) ||
-                Utils.isPocketGestureEnabled(this)) {
-            mPocketSensor.disable();
+        mScreenStateDebouncer.dump(pw);
+        mGestureEngine.dump(pw);
+        if (mPulseDispatcher != null) {
+            mPulseDispatcher.dump(pw);
+            mWakeLock.dump(pw);
         }
     }
 
-    private void onDisplayOff() {
+    @Override
+    public void onDisplayOn() {
+        if (DEBUG) Log.d(TAG, "Display on");
+        mDisplayOff = false;
+        updateSensors(mGestureConfig);
+    }
+
+    @Override
+    public void onDisplayOff() {
         if (DEBUG) Log.d(TAG, "Display off");
-        if (Utils.isPickUpEnabled(this)) {
-            mPickupSensor.enable();
+        mDisplayOff = true;
+        updateSensors(mGestureConfig);
+    }
+
+    @Override
+    public void onGestureConfigChanged(int userId, GestureConfig config) {
+        if (DEBUG) Log.d(TAG, "Gesture config of user " + userId + " changed");
+        mUserConfigs.put(userId, config);
+        if (userId == mCurrentUserId) {
+            mGestureConfig = config;
+            updateSensors(config);
         }
-        if (Utils.isHandwaveGestureEnabled(this) ||
-                Utils.isPocketGestureEnabled(this)) {
-            mPocketSensor.enable();
+    }
+
+    private void onUserSwitched(int userId) {
+        if (DEBUG) Log.d(TAG, "Switched to user " + userId);
+        if (userId == UserHandle.USER_NULL) {
+            return;
+        }
+        // Changes made while the user was in the background weren't followed,
+        // so its config is read again on every switch
+        GestureConfig config = Utils.getGestureConfigForUser(this, userId);
+        mUserConfigs.put(userId, config);
+        mCurrentUserId = userId;
+        mGestureConfig = config;
+        updateSensors(config);
+    }
+
+    /**
+     * Enables exactly the sensors needed by the given config while the
+     * display is off, touching only those whose state changes.
+     */
+    private void updateSensors(GestureConfig config) {
+        boolean pickup = mDisplayOff && config.isPickUpEnabled();
+        boolean pocket = mDisplayOff && config.isProximityEnabled();
+        if (pickup || pocket) {
+            ensureSensorsCreated();
+        }
+        if (pickup != mPickupEnabled) {
+            if (pickup) {
+                mPickupSensor.enable();
+            } else {
+                mPickupSensor.disable();
+            }
+            mPickupEnabled = pickup;
+        }
+        if (pocket != mPocketEnabled) {
+            if (pocket) {
+                mPocketSensor.enable();
+            } else {
+                mPocketSensor.disable();
+            }
+            mPocketEnabled = pocket;
         }
     }
 
@@ -89,9 +238,23 @@ public class DozeService extends Service {
         @Override
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
-                onDisplayOn();
+                if (mSensorHub != null) {
+                    mSensorHub.recordBroadcast(SensorTraceRecorder.SOURCE_SCREEN_ON);
+                }
+                mScreenStateDebouncer.setScreenOn(true);
             } else if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-                onDisplayOff();
+                // Start the sensors here rather than once the screen state
+                // settled, so that the trace starts with this screen off
+                if (mGestureConfig.isAnyEnabled()) {
+                    ensureSensorsCreated();
+                }
+                if (mSensorHub != null) {
+                    mSensorHub.recordBroadcast(SensorTraceRecorder.SOURCE_SCREEN_OFF);
+                }
+                mScreenStateDebouncer.setScreenOn(false);
+            } else if (intent.getAction().equals(Intent.ACTION_USER_SWITCHED)) {
+                onUserSwitched(intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                        UserHandle.USER_NULL));
             }
         }
     };
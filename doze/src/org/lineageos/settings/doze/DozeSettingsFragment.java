@@ -18,15 +18,11 @@
 package org.lineageos.settings.doze;
 
 import android.app.ActionBar;
-import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
-import android.content.Context;
 import android.content.DialogInterface;
-import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -42,10 +38,11 @@ import androidx.preference.PreferenceFragment;
 import androidx.preference.SwitchPreference;
 
 public class DozeSettingsFragment extends PreferenceFragment implements OnPreferenceChangeListener,
-        CompoundButton.OnCheckedChangeListener {
+        CompoundButton.OnCheckedChangeListener, DozeSettingsRepository.Listener {
 
     private TextView mTextView;
     private View mSwitchBar;
+    private Switch mSwitchWidget;
 
     private SwitchPreference mAlwaysOnDisplayPreference;
 
@@ -53,7 +50,9 @@ public class DozeSettingsFragment extends PreferenceFragment implements OnPrefer
     private SwitchPreference mHandwavePreference;
     private SwitchPreference mPocketPreference;
 
-    private Handler mHandler = new Handler();
+    private DozeSettingsRepository mRepository;
+    private DozeSettingsRepository.State mState;
+    private boolean mCheckHelp;
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -61,37 +60,25 @@ public class DozeSettingsFragment extends PreferenceFragment implements OnPrefer
         final ActionBar actionBar = getActivity().getActionBar();
         actionBar.setDisplayHomeAsUpEnabled(true);
 
-        SharedPreferences prefs = getActivity().getSharedPreferences("doze_settings",
-                Activity.MODE_PRIVATE);
-        if (savedInstanceState == null && !prefs.getBoolean("first_help_shown", false)) {
-            showHelp();
-        }
-
-        boolean dozeEnabled = Utils.isDozeEnabled(getActivity());
+        mCheckHelp = savedInstanceState == null;
 
         mAlwaysOnDisplayPreference = (SwitchPreference) findPreference(Utils.ALWAYS_ON_DISPLAY);
-        mAlwaysOnDisplayPreference.setEnabled(dozeEnabled);
-        mAlwaysOnDisplayPreference.setChecked(Utils.isAlwaysOnEnabled(getActivity()));
         mAlwaysOnDisplayPreference.setOnPreferenceChangeListener(this);
 
         mPickUpPreference = (SwitchPreference) findPreference(Utils.GESTURE_PICK_UP_KEY);
-        mPickUpPreference.setEnabled(dozeEnabled);
         mPickUpPreference.setOnPreferenceChangeListener(this);
 
         mHandwavePreference = (SwitchPreference) findPreference(Utils.GESTURE_HAND_WAVE_KEY);
-        mHandwavePreference.setEnabled(dozeEnabled);
         mHandwavePreference.setOnPreferenceChangeListener(this);
 
         mPocketPreference = (SwitchPreference) findPreference(Utils.GESTURE_POCKET_KEY);
-        mPocketPreference.setEnabled(dozeEnabled);
         mPocketPreference.setOnPreferenceChangeListener(this);
 
-        // Hide AOD if not supported and set all its dependents otherwise
-        if (!Utils.alwaysOnDisplayAvailable(getActivity())) {
-            getPreferenceScreen().removePreference(mAlwaysOnDisplayPreference);
-        } else {
-            mPickUpPreference.setDependency(Utils.ALWAYS_ON_DISPLAY);
-        }
+        // Everything stays disabled until the settings have been loaded
+        setPreferencesEnabled(false);
+
+        mRepository = DozeSettingsRepository.getInstance(getActivity());
+        mRepository.addListener(this);
     }
 
     @Override
@@ -106,51 +93,91 @@ public class DozeSettingsFragment extends PreferenceFragment implements OnPrefer
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
-        boolean dozeEnabled = Utils.isDozeEnabled(getActivity());
-
         mTextView = view.findViewById(R.id.switch_text);
-        mTextView.setText(getString(dozeEnabled ?
-                R.string.switch_bar_on : R.string.switch_bar_off));
 
         mSwitchBar = view.findViewById(R.id.switch_bar);
-        Switch switchWidget = mSwitchBar.findViewById(android.R.id.switch_widget);
-        switchWidget.setChecked(dozeEnabled);
-        switchWidget.setOnCheckedChangeListener(this);
-        mSwitchBar.setActivated(dozeEnabled);
+        mSwitchWidget = mSwitchBar.findViewById(android.R.id.switch_widget);
+        mSwitchWidget.setEnabled(false);
+        mSwitchWidget.setOnCheckedChangeListener(this);
         mSwitchBar.setOnClickListener(v -> {
-            switchWidget.setChecked(!switchWidget.isChecked());
-            mSwitchBar.setActivated(switchWidget.isChecked());
+            if (mState == null) {
+                return;
+            }
+            mSwitchWidget.setChecked(!mSwitchWidget.isChecked());
+            mSwitchBar.setActivated(mSwitchWidget.isChecked());
         });
+
+        if (mState != null) {
+            updateSwitchBar(mState.dozeEnabled);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mRepository.removeListener(this);
+    }
+
+    @Override
+    public void onStateChanged(DozeSettingsRepository.State state) {
+        boolean firstState = mState == null;
+        mState = state;
+
+        if (firstState) {
+            // Hide AOD if not supported and set all its dependents otherwise
+            if (!state.alwaysOnAvailable) {
+                getPreferenceScreen().removePreference(mAlwaysOnDisplayPreference);
+            } else {
+                mPickUpPreference.setDependency(Utils.ALWAYS_ON_DISPLAY);
+            }
+            if (mCheckHelp && !state.helpShown && !getFragmentManager().isStateSaved()) {
+                showHelp();
+            }
+        }
+
+        mAlwaysOnDisplayPreference.setChecked(state.alwaysOnEnabled);
+        mPickUpPreference.setChecked(state.gestures.isPickUpEnabled());
+        mHandwavePreference.setChecked(state.gestures.isHandwaveEnabled());
+        mPocketPreference.setChecked(state.gestures.isPocketEnabled());
+        setPreferencesEnabled(state.dozeEnabled);
+        if (mSwitchBar != null) {
+            updateSwitchBar(state.dozeEnabled);
+        }
+    }
+
+    private void updateSwitchBar(boolean dozeEnabled) {
+        mTextView.setText(getString(dozeEnabled ?
+                R.string.switch_bar_on : R.string.switch_bar_off));
+        // Reflect the state without it being taken for a user change
+        mSwitchWidget.setOnCheckedChangeListener(null);
+        mSwitchWidget.setChecked(dozeEnabled);
+        mSwitchWidget.setOnCheckedChangeListener(this);
+        mSwitchWidget.setEnabled(true);
+        mSwitchBar.setActivated(dozeEnabled);
+    }
+
+    private void setPreferencesEnabled(boolean enabled) {
+        mAlwaysOnDisplayPreference.setEnabled(enabled);
+        mPickUpPreference.setEnabled(enabled);
+        mHandwavePreference.setEnabled(enabled);
+        mPocketPreference.setEnabled(enabled);
     }
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         if (Utils.ALWAYS_ON_DISPLAY.equals(preference.getKey())) {
-            Utils.enableAlwaysOn(getActivity(), (Boolean) newValue);
+            mRepository.setAlwaysOnEnabled((Boolean) newValue);
+        } else {
+            // Gestures are stored per user in the settings, not as preferences
+            mRepository.setGestureEnabled(preference.getKey(), (Boolean) newValue);
         }
 
-        mHandler.post(() -> Utils.checkDozeService(getActivity()));
-
         return true;
     }
 
     @Override
     public void onCheckedChanged(CompoundButton compoundButton, boolean isChecked) {
-        Utils.enableDoze(getActivity(), isChecked);
-        Utils.checkDozeService(getActivity());
-
-        mTextView.setText(getString(isChecked ? R.string.switch_bar_on : R.string.switch_bar_off));
-        mSwitchBar.setActivated(isChecked);
-
-        if (!isChecked) {
-            Utils.enableAlwaysOn(getActivity(), false);
-            mAlwaysOnDisplayPreference.setChecked(false);
-        }
-        mAlwaysOnDisplayPreference.setEnabled(isChecked);
-
-        mPickUpPreference.setEnabled(isChecked);
-        mHandwavePreference.setEnabled(isChecked);
-        mPocketPreference.setEnabled(isChecked);
+        mRepository.setDozeEnabled(isChecked);
     }
 
     @Override
@@ -174,10 +201,7 @@ public class DozeSettingsFragment extends PreferenceFragment implements OnPrefer
 
         @Override
         public void onCancel(DialogInterface dialog) {
-            getActivity().getSharedPreferences("doze_settings", Activity.MODE_PRIVATE)
-                    .edit()
-                    .putBoolean("first_help_shown", true)
-                    .commit();
+            DozeSettingsRepository.getInstance(getActivity()).setHelpShown();
         }
     }
 
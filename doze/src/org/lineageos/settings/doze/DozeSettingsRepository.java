@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the settings provider and preference I/O of the doze settings
+ * screen off the main thread. All reads are done in one batch on a
+ * background thread and all writes go through the same thread, so they are
+ * applied in the order they were made. Listeners are told about every new
+ * {@link State} on the main thread.
+ */
+final class DozeSettingsRepository {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "DozeSettingsRepository";
+
+    private static final String PREFS_NAME = "doze_settings";
+    private static final String FIRST_HELP_SHOWN_KEY = "first_help_shown";
+
+    interface Listener {
+        void onStateChanged(State state);
+    }
+
+    /**
+     * Immutable snapshot of what the settings screen shows.
+     */
+    static final class State {
+        final boolean dozeEnabled;
+        final boolean alwaysOnEnabled;
+        final boolean alwaysOnAvailable;
+        final boolean helpShown;
+        final GestureConfig gestures;
+
+        State(boolean dozeEnabled, boolean alwaysOnEnabled, boolean alwaysOnAvailable,
+                boolean helpShown, GestureConfig gestures) {
+            this.dozeEnabled = dozeEnabled;
+            this.alwaysOnEnabled = alwaysOnEnabled;
+            this.alwaysOnAvailable = alwaysOnAvailable;
+            this.helpShown = helpShown;
+            this.gestures = gestures;
+        }
+    }
+
+    private static DozeSettingsRepository sInstance;
+
+    private final Context mContext;
+    private final Handler mWorkHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Writes posted but not applied yet. A load that runs while there are
+    // some would publish stale values over the optimistic ones.
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+
+    // Only touched on the main thread
+    private final List<Listener> mListeners = new ArrayList<>();
+    private State mState;
+
+    /**
+     * Does the reads and writes on the given handler.
+     */
+    DozeSettingsRepository(Context context, Handler workHandler) {
+        mContext = context;
+        mWorkHandler = workHandler;
+
+        // DozeService follows the settings written here on its own
+        DozeConfigMonitor.start(context);
+    }
+
+    static synchronized DozeSettingsRepository getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new DozeSettingsRepository(context.getApplicationContext(),
+                    new Handler(thread.getLooper()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a listener and starts loading the current state. The listener is
+     * called right away with the last known state, if any, and again once
+     * the fresh one is loaded.
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mState != null) {
+            listener.onStateChanged(mState);
+        }
+        mWorkHandler.post(this::load);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    void setDozeEnabled(boolean enabled) {
+        State state = mState;
+        if (state != null) {
+            publish(new State(enabled, enabled && state.alwaysOnEnabled,
+                    state.alwaysOnAvailable, state.helpShown, state.gestures));
+        }
+        write(() -> {
+            Utils.enableDoze(mContext, enabled);
+            if (!enabled) {
+                Utils.enableAlwaysOn(mContext, false);
+            }
+        });
+    }
+
+    void setAlwaysOnEnabled(boolean enabled) {
+        State state = mState;
+        if (state != null) {
+            publish(new State(state.dozeEnabled, enabled, state.alwaysOnAvailable,
+                    state.helpShown, state.gestures));
+        }
+        write(() -> Utils.enableAlwaysOn(mContext, enabled));
+    }
+
+    /**
+     * Turns the gesture with the given preference key on or off.
+     */
+    void setGestureEnabled(String key, boolean enabled) {
+        State state = mState;
+        if (state != null) {
+            publish(new State(state.dozeEnabled, state.alwaysOnEnabled,
+                    state.alwaysOnAvailable, state.helpShown,
+                    state.gestures.withGestureEnabled(key, enabled)));
+        }
+        write(() -> Utils.enableGesture(mContext, key, enabled));
+    }
+
+    void setHelpShown() {
+        State state = mState;
+        if (state != null) {
+            publish(new State(state.dozeEnabled, state.alwaysOnEnabled,
+                    state.alwaysOnAvailable, true, state.gestures));
+        }
+        write(() -> mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(FIRST_HELP_SHOWN_KEY, true)
+                .apply());
+    }
+
+    private void write(Runnable write) {
+        mPendingWrites.incrementAndGet();
+        mWorkHandler.post(() -> {
+            write.run();
+            mPendingWrites.decrementAndGet();
+            // read back what was actually stored once the queue is drained
+            load();
+        });
+    }
+
+    private void load() {
+        if (mPendingWrites.get() > 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        State state = new State(
+                Utils.isDozeEnabled(mContext),
+                Utils.isAlwaysOnEnabled(mContext),
+                Utils.alwaysOnDisplayAvailable(mContext),
+                mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                        .getBoolean(FIRST_HELP_SHOWN_KEY, false),
+                Utils.getGestureConfig(mContext));
+        if (DEBUG) Log.d(TAG, "Loaded state in " + (System.nanoTime() - start) / 1000 + "us");
+        mMainHandler.post(() -> {
+            // a write may have been made while this was loading
+            if (mPendingWrites.get() == 0) {
+                publish(state);
+            }
+        });
+    }
+
+    private void publish(State state) {
+        mState = state;
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onStateChanged(state);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+/**
+ * The single time source of the gesture code. All gesture timing is done
+ * in nanoseconds of one monotonic timebase that keeps counting in suspend,
+ * and sensor timestamps are converted to it before being compared with
+ * anything else.
+ */
+public interface GestureClock {
+
+    /** Returns the current time in nanoseconds. */
+    long nowNs();
+
+    /**
+     * Converts the timestamp of an event of the given sensor to the
+     * timebase of {@link #nowNs}.
+     */
+    long fromSensorTimestamp(int sensorId, long timestampNs);
+
+    /** Called when the given sensor is about to be registered. */
+    default void onSensorEnabled(int sensorId) {
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+/**
+ * Immutable snapshot of the gesture toggles of a user. A new instance is
+ * built whenever the settings change, so readers never touch the settings
+ * provider.
+ */
+public final class GestureConfig {
+
+    static final GestureConfig DISABLED = new GestureConfig(false, false, false);
+
+    private final boolean mPickUpEnabled;
+    private final boolean mHandwaveEnabled;
+    private final boolean mPocketEnabled;
+
+    GestureConfig(boolean pickUpEnabled, boolean handwaveEnabled, boolean pocketEnabled) {
+        mPickUpEnabled = pickUpEnabled;
+        mHandwaveEnabled = handwaveEnabled;
+        mPocketEnabled = pocketEnabled;
+    }
+
+    /**
+     * Returns a copy with the gesture of the given preference key changed.
+     */
+    GestureConfig withGestureEnabled(String key, boolean enabled) {
+        return new GestureConfig(
+                Utils.GESTURE_PICK_UP_KEY.equals(key) ? enabled : mPickUpEnabled,
+                Utils.GESTURE_HAND_WAVE_KEY.equals(key) ? enabled : mHandwaveEnabled,
+                Utils.GESTURE_POCKET_KEY.equals(key) ? enabled : mPocketEnabled);
+    }
+
+    public boolean isPickUpEnabled() {
+        return mPickUpEnabled;
+    }
+
+    public boolean isHandwaveEnabled() {
+        return mHandwaveEnabled;
+    }
+
+    public boolean isPocketEnabled() {
+        return mPocketEnabled;
+    }
+
+    public boolean isProximityEnabled() {
+        return mHandwaveEnabled || mPocketEnabled;
+    }
+
+    public boolean isAnyEnabled() {
+        return mPickUpEnabled || mHandwaveEnabled || mPocketEnabled;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GestureConfig)) {
+            return false;
+        }
+        GestureConfig other = (GestureConfig) obj;
+        return mPickUpEnabled == other.mPickUpEnabled
+                && mHandwaveEnabled == other.mHandwaveEnabled
+                && mPocketEnabled == other.mPocketEnabled;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mPickUpEnabled ? 1 : 0) | (mHandwaveEnabled ? 2 : 0) | (mPocketEnabled ? 4 : 0);
+    }
+}
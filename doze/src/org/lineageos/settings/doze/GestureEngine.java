@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Framework-free pulse decision engine. Sensor events are passed in as
+ * primitives and checked against every registered {@link GestureRule}.
+ * Rules only ever see times of the engine's {@link GestureClock}.
+ */
+public class GestureEngine {
+
+    public static final int SENSOR_PICKUP = 0;
+    public static final int SENSOR_POCKET = 1;
+    static final int SENSOR_COUNT = 2;
+
+    static final String[] SENSOR_NAMES = { "pickup", "pocket" };
+
+    // Events are delivered on a single thread, so plain fields are enough;
+    // dump() may read slightly stale values.
+    private final long[] mEventCount = new long[SENSOR_COUNT];
+    private final long[] mPulseCount = new long[SENSOR_COUNT];
+
+    // Copy-on-write so that processing an event never takes a lock
+    private volatile GestureRule[] mRules = new GestureRule[0];
+
+    private final GestureClock mClock;
+
+    public GestureEngine(GestureClock clock) {
+        mClock = clock;
+    }
+
+    public GestureClock getClock() {
+        return mClock;
+    }
+
+    public synchronized void addRule(GestureRule rule) {
+        GestureRule[] rules = Arrays.copyOf(mRules, mRules.length + 1);
+        rules[rules.length - 1] = rule;
+        mRules = rules;
+    }
+
+    public synchronized void removeRule(GestureRule rule) {
+        GestureRule[] rules = mRules;
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i] == rule) {
+                GestureRule[] updated = new GestureRule[rules.length - 1];
+                System.arraycopy(rules, 0, updated, 0, i);
+                System.arraycopy(rules, i + 1, updated, i, updated.length - i);
+                mRules = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Feeds one sensor event to all rules.
+     *
+     * @param sensorTimestampNs the event timestamp, in the sensor timebase
+     * @return the first rule that asked for a pulse, or null
+     */
+    public GestureRule onEvent(long sensorTimestampNs, int sensorId, float value) {
+        long timestampNs = mClock.fromSensorTimestamp(sensorId, sensorTimestampNs);
+        GestureRule pulse = null;
+        // Every rule sees every event so that its state stays current
+        for (GestureRule rule : mRules) {
+            if (rule.onEvent(timestampNs, sensorId, value) && pulse == null) {
+                pulse = rule;
+            }
+        }
+
+        mEventCount[sensorId]++;
+        if (pulse != null) {
+            mPulseCount[sensorId]++;
+        }
+        return pulse;
+    }
+
+    public void onSensorEnabled(int sensorId) {
+        mClock.onSensorEnabled(sensorId);
+        long timestampNs = mClock.nowNs();
+        for (GestureRule rule : mRules) {
+            rule.onSensorEnabled(sensorId, timestampNs);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Gesture engine:");
+        for (int i = 0; i < SENSOR_COUNT; i++) {
+            pw.println("  " + SENSOR_NAMES[i] + ": events=" + mEventCount[i]
+                    + " pulses=" + mPulseCount[i]);
+        }
+    }
+}
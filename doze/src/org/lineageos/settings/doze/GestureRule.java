@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+/**
+ * A gesture recognised by the {@link GestureEngine}. Rules are fed every
+ * sensor event and must not allocate while doing so.
+ */
+public interface GestureRule {
+
+    /** Short name used for logging and accounting. */
+    String getName();
+
+    /**
+     * Called for every event of every sensor the engine is fed with.
+     *
+     * @return true if the event completes the gesture and the display
+     *         should pulse
+     */
+    boolean onEvent(long timestampNs, int sensorId, float value);
+
+    /** Called when the given sensor starts delivering events. */
+    default void onSensorEnabled(int sensorId, long timestampNs) {
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Keeps the CPU awake while a gesture event is processed, so that the pulse
+ * broadcast is sent before the device suspends again, and accounts for how
+ * long every sensor held it. Must only be used from the sensor event thread.
+ */
+public class GestureWakeLock {
+
+    private static final String TAG = "OneplusDoze:Gesture";
+
+    // Upper bound in case processing gets stuck
+    private static final long TIMEOUT_MS = 1000;
+
+    // Hold durations in power of two microsecond buckets, the last one
+    // collects everything from about a second up
+    private static final int BUCKET_COUNT = 21;
+
+    private final PowerManager.WakeLock mWakeLock;
+    private final GestureClock mClock;
+
+    // Events are delivered on a single thread, so plain fields are enough;
+    // dump() may read slightly stale values.
+    private final long[] mHoldCount = new long[GestureEngine.SENSOR_COUNT];
+    private final long[] mTotalHoldNs = new long[GestureEngine.SENSOR_COUNT];
+    private final long[] mMaxHoldNs = new long[GestureEngine.SENSOR_COUNT];
+    private final long[][] mHistogram = new long[GestureEngine.SENSOR_COUNT][BUCKET_COUNT];
+
+    public GestureWakeLock(Context context, GestureClock clock) {
+        mClock = clock;
+        PowerManager powerManager = context.getSystemService(PowerManager.class);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        // Every acquire is matched by a release, which may come after the timeout
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Acquires the wakelock for an incoming event.
+     *
+     * @return the start time to pass to {@link #release}
+     */
+    public long acquire() {
+        mWakeLock.acquire(TIMEOUT_MS);
+        return mClock.nowNs();
+    }
+
+    public void release(int sensorId, long startNs) {
+        mWakeLock.release();
+        long heldNs = mClock.nowNs() - startNs;
+
+        mHoldCount[sensorId]++;
+        mTotalHoldNs[sensorId] += heldNs;
+        if (heldNs > mMaxHoldNs[sensorId]) {
+            mMaxHoldNs[sensorId] = heldNs;
+        }
+        long heldUs = heldNs / 1000;
+        int bucket = heldUs == 0 ? 0 : 64 - Long.numberOfLeadingZeros(heldUs);
+        mHistogram[sensorId][Math.min(bucket, BUCKET_COUNT - 1)]++;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Gesture wakelock (timeout " + TIMEOUT_MS + "ms):");
+        for (int i = 0; i < GestureEngine.SENSOR_COUNT; i++) {
+            pw.println("  " + GestureEngine.SENSOR_NAMES[i] + ": holds=" + mHoldCount[i]
+                    + " total=" + mTotalHoldNs[i] / 1000 + "us"
+                    + " max=" + mMaxHoldNs[i] / 1000 + "us");
+            if (mHoldCount[i] == 0) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder("   ");
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                if (mHistogram[i][b] == 0) {
+                    continue;
+                }
+                // Bucket b holds durations below 2^b us
+                if (b == BUCKET_COUNT - 1) {
+                    sb.append(" >=").append(1L << (b - 1));
+                } else {
+                    sb.append(" <").append(1L << b);
+                }
+                sb.append("us:").append(mHistogram[i][b]);
+            }
+            pw.println(sb);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pulses when the device is picked up, at most once per interval.
+ */
+public class PickupRule implements GestureRule {
+
+    private static final long MIN_PULSE_INTERVAL_NS = 2500L * 1000 * 1000;
+
+    private final AtomicLong mEntryTimestamp = new AtomicLong();
+
+    @Override
+    public String getName() {
+        return "pickup";
+    }
+
+    @Override
+    public boolean onEvent(long timestampNs, int sensorId, float value) {
+        if (sensorId != GestureEngine.SENSOR_PICKUP) {
+            return false;
+        }
+
+        // The interval is measured between event timestamps, so batched
+        // events are debounced by the time they happened rather than the
+        // time they were delivered. The CAS both checks the interval and
+        // claims it, so two racing events can't both pulse
+        long entryTimestamp;
+        do {
+            entryTimestamp = mEntryTimestamp.get();
+            if (timestampNs - entryTimestamp < MIN_PULSE_INTERVAL_NS) {
+                return false;
+            }
+        } while (!mEntryTimestamp.compareAndSet(entryTimestamp, timestampNs));
+
+        return value == 1;
+    }
+
+    @Override
+    public void onSensorEnabled(int sensorId, long timestampNs) {
+        if (sensorId == GestureEngine.SENSOR_PICKUP) {
+            mEntryTimestamp.set(timestampNs);
+        }
+    }
+}
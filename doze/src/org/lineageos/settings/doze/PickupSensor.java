@@ -21,52 +21,48 @@ import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import org.lineageos.sensorhub.SensorHub;
 
 public class PickupSensor implements SensorEventListener {
 
     private static final boolean DEBUG = false;
     private static final String TAG = "PickupSensor";
 
-    private static final int MIN_PULSE_INTERVAL_MS = 2500;
+    static final String SENSOR_TYPE = "com.oneplus.sensor.pickup";
 
-    private SensorManager mSensorManager;
+    private SensorHub mSensorHub;
     private Sensor mSensor;
     private Context mContext;
-    private ExecutorService mExecutorService;
+    private GestureEngine mGestureEngine;
+    private PulseDispatcher mPulseDispatcher;
+    private GestureWakeLock mWakeLock;
+    private int mMaxReportLatencyUs;
 
-    private long mEntryTimestamp;
-
-    public PickupSensor(Context context) {
+    public PickupSensor(Context context, GestureEngine gestureEngine,
+            PulseDispatcher pulseDispatcher, GestureWakeLock wakeLock) {
         mContext = context;
-        mSensorManager = mContext.getSystemService(SensorManager.class);
-        mSensor = Utils.findSensorWithType(mSensorManager, "com.oneplus.sensor.pickup");
-        mExecutorService = Executors.newSingleThreadExecutor();
-    }
-
-    private Future<?> submit(Runnable runnable) {
-        return mExecutorService.submit(runnable);
+        mGestureEngine = gestureEngine;
+        mPulseDispatcher = pulseDispatcher;
+        mWakeLock = wakeLock;
+        mSensorHub = SensorHub.getInstance(mContext);
+        mSensor = mSensorHub.getSensor(SENSOR_TYPE);
+        mMaxReportLatencyUs = Utils.getMaxReportLatencyUs(mContext);
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (DEBUG) Log.d(TAG, "Got sensor event: " + event.values[0]);
 
-        long delta = SystemClock.elapsedRealtime() - mEntryTimestamp;
-        if (delta < MIN_PULSE_INTERVAL_MS) {
-            return;
-        } else {
-            mEntryTimestamp = SystemClock.elapsedRealtime();
-        }
-
-        if (event.values[0] == 1) {
-            Utils.launchDozePulse(mContext);
+        long wakeStart = mWakeLock.acquire();
+        try {
+            if (mGestureEngine.onEvent(event.timestamp, GestureEngine.SENSOR_PICKUP,
+                    event.values[0]) != null) {
+                mPulseDispatcher.requestPulse();
+            }
+        } finally {
+            mWakeLock.release(GestureEngine.SENSOR_PICKUP, wakeStart);
         }
     }
 
@@ -77,17 +73,12 @@ public class PickupSensor implements SensorEventListener {
 
     protected void enable() {
         if (DEBUG) Log.d(TAG, "Enabling");
-        submit(() -> {
-            mSensorManager.registerListener(this, mSensor,
-                    SensorManager.SENSOR_DELAY_NORMAL);
-            mEntryTimestamp = SystemClock.elapsedRealtime();
-        });
+        mGestureEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        mSensorHub.setEnabled(mSensor, this, true, mMaxReportLatencyUs);
     }
 
     protected void disable() {
         if (DEBUG) Log.d(TAG, "Disabling");
-        submit(() -> {
-            mSensorManager.unregisterListener(this, mSensor);
-        });
+        mSensorHub.setEnabled(mSensor, this, false);
     }
 }
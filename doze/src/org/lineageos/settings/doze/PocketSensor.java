@@ -21,67 +21,47 @@ import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.util.Log;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import org.lineageos.sensorhub.SensorHub;
 
 public class PocketSensor implements SensorEventListener {
 
     private static final boolean DEBUG = false;
     private static final String TAG = "PocketSensor";
 
-    // Maximum time for the hand to cover the sensor: 1s
-    private static final int HANDWAVE_MAX_DELTA_NS = 1000 * 1000 * 1000;
+    static final String SENSOR_TYPE = "com.oneplus.sensor.pocket";
 
-    // Minimum time until the device is considered to have been in the pocket: 2s
-    private static final int POCKET_MIN_DELTA_NS = 2000 * 1000 * 1000;
-
-    private SensorManager mSensorManager;
+    private SensorHub mSensorHub;
     private Sensor mSensor;
     private Context mContext;
-    private ExecutorService mExecutorService;
-
-    private boolean mSawNear = false;
-    private long mInPocketTime = 0;
+    private GestureEngine mGestureEngine;
+    private PulseDispatcher mPulseDispatcher;
+    private GestureWakeLock mWakeLock;
+    private int mMaxReportLatencyUs;
 
-    public PocketSensor(Context context) {
+    public PocketSensor(Context context, GestureEngine gestureEngine,
+            PulseDispatcher pulseDispatcher, GestureWakeLock wakeLock) {
         mContext = context;
-        mSensorManager = mContext.getSystemService(SensorManager.class);
-        mSensor = Utils.findSensorWithType(mSensorManager, "com.oneplus.sensor.pocket");
-        mExecutorService = Executors.newSingleThreadExecutor();
-    }
-
-    private Future<?> submit(Runnable runnable) {
-        return mExecutorService.submit(runnable);
+        mGestureEngine = gestureEngine;
+        mPulseDispatcher = pulseDispatcher;
+        mWakeLock = wakeLock;
+        mSensorHub = SensorHub.getInstance(mContext);
+        mSensor = mSensorHub.getSensor(SENSOR_TYPE);
+        mMaxReportLatencyUs = Utils.getMaxReportLatencyUs(mContext);
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        boolean isNear = event.values[0] == 1;
-        if (mSawNear && !isNear) {
-            if (shouldPulse(event.timestamp)) {
-                Utils.launchDozePulse(mContext);
+        long wakeStart = mWakeLock.acquire();
+        try {
+            if (mGestureEngine.onEvent(event.timestamp, GestureEngine.SENSOR_POCKET,
+                    event.values[0]) != null) {
+                mPulseDispatcher.requestPulse();
             }
-        } else {
-            mInPocketTime = event.timestamp;
-        }
-        mSawNear = isNear;
-    }
-
-    private boolean shouldPulse(long timestamp) {
-        long delta = timestamp - mInPocketTime;
-
-        if (Utils.isHandwaveGestureEnabled(mContext) && Utils.isPocketGestureEnabled(mContext)) {
-            return true;
-        } else if (Utils.isHandwaveGestureEnabled(mContext)) {
-            return delta < HANDWAVE_MAX_DELTA_NS;
-        } else if (Utils.isPocketGestureEnabled(mContext)) {
-            return delta >= POCKET_MIN_DELTA_NS;
+        } finally {
+            mWakeLock.release(GestureEngine.SENSOR_POCKET, wakeStart);
         }
-        return false;
     }
 
     @Override
@@ -91,16 +71,12 @@ public class PocketSensor implements SensorEventListener {
 
     protected void enable() {
         if (DEBUG) Log.d(TAG, "Enabling");
-        submit(() -> {
-            mSensorManager.registerListener(this, mSensor,
-                    SensorManager.SENSOR_DELAY_NORMAL);
-        });
+        mGestureEngine.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        mSensorHub.setEnabled(mSensor, this, true, mMaxReportLatencyUs);
     }
 
     protected void disable() {
         if (DEBUG) Log.d(TAG, "Disabling");
-        submit(() -> {
-            mSensorManager.unregisterListener(this, mSensor);
-        });
+        mSensorHub.setEnabled(mSensor, this, false);
     }
 }
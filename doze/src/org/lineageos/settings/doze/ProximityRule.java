@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hand wave and pocket gestures: pulses when the pocket sensor goes from
+ * near to far, depending on how long it was covered.
+ */
+public class ProximityRule implements GestureRule {
+
+    // Maximum time for the hand to cover the sensor: 1s
+    private static final long HANDWAVE_MAX_DELTA_NS = 1000L * 1000 * 1000;
+
+    // Minimum time until the device is considered to have been in the pocket: 2s
+    private static final long POCKET_MIN_DELTA_NS = 2000L * 1000 * 1000;
+
+    // Near/far tracking packed into one word so it can be updated with a
+    // single CAS: bit 0 is set when the last event was near, the remaining
+    // bits hold the timestamp at which the device went into the pocket.
+    private static final long STATE_SAW_NEAR = 1;
+
+    private final AtomicLong mState = new AtomicLong();
+
+    private final BooleanSupplier mHandwaveEnabled;
+    private final BooleanSupplier mPocketEnabled;
+
+    public ProximityRule(BooleanSupplier handwaveEnabled, BooleanSupplier pocketEnabled) {
+        mHandwaveEnabled = handwaveEnabled;
+        mPocketEnabled = pocketEnabled;
+    }
+
+    @Override
+    public String getName() {
+        return "proximity";
+    }
+
+    @Override
+    public boolean onEvent(long timestampNs, int sensorId, float value) {
+        if (sensorId != GestureEngine.SENSOR_POCKET) {
+            return false;
+        }
+
+        boolean isNear = value == 1;
+        long prev, next;
+        boolean leftPocket;
+        do {
+            prev = mState.get();
+            leftPocket = (prev & STATE_SAW_NEAR) != 0 && !isNear;
+            long inPocketTime = leftPocket ? prev >>> 1 : timestampNs;
+            next = (inPocketTime << 1) | (isNear ? STATE_SAW_NEAR : 0);
+        } while (!mState.compareAndSet(prev, next));
+
+        return leftPocket && shouldPulse(timestampNs - (prev >>> 1));
+    }
+
+    private boolean shouldPulse(long delta) {
+        boolean handwave = mHandwaveEnabled.getAsBoolean();
+        boolean pocket = mPocketEnabled.getAsBoolean();
+
+        if (handwave && pocket) {
+            return true;
+        } else if (handwave) {
+            return delta < HANDWAVE_MAX_DELTA_NS;
+        } else if (pocket) {
+            return delta >= POCKET_MIN_DELTA_NS;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Single point through which every gesture asks SystemUI for a doze pulse.
+ * Requests made within the coalescing window of a pulse are merged into
+ * it, so a hand wave and a pick up together only pulse once, and a token
+ * bucket caps the rate of longer bursts. Safe to use from any thread.
+ */
+public class PulseDispatcher {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "PulseDispatcher";
+
+    private static final String DOZE_INTENT = "com.android.systemui.doze.pulse";
+
+    // Requests this close to the last pulse are part of it
+    private static final long COALESCE_WINDOW_MS = 500;
+
+    // Allows a short burst of pulses, then one every refill interval
+    private static final int BUCKET_CAPACITY = 3;
+    private static final long REFILL_INTERVAL_MS = 2000;
+
+    private final Context mContext;
+    private final GestureClock mClock;
+    private final Intent mPulseIntent = new Intent(DOZE_INTENT);
+
+    // Guarded by this
+    private int mTokens = BUCKET_CAPACITY;
+    private long mLastRefillMs;
+    private long mLastPulseMs = -COALESCE_WINDOW_MS;
+    private long mRequested;
+    private long mSent;
+    private long mCoalesced;
+    private long mRateLimited;
+
+    public PulseDispatcher(Context context, GestureClock clock) {
+        mContext = context;
+        mClock = clock;
+        mLastRefillMs = nowMs();
+    }
+
+    /**
+     * Asks for a pulse. Returns whether a broadcast was actually sent.
+     */
+    public boolean requestPulse() {
+        synchronized (this) {
+            long now = nowMs();
+            mRequested++;
+            if (now - mLastPulseMs < COALESCE_WINDOW_MS) {
+                mCoalesced++;
+                if (DEBUG) Log.d(TAG, "Merged into the pulse sent "
+                        + (now - mLastPulseMs) + "ms ago");
+                return false;
+            }
+            refill(now);
+            if (mTokens == 0) {
+                mRateLimited++;
+                if (DEBUG) Log.d(TAG, "Rate limited");
+                return false;
+            }
+            mTokens--;
+            mLastPulseMs = now;
+            mSent++;
+        }
+        if (DEBUG) Log.d(TAG, "Launch doze pulse");
+        // The broadcast is queued by the system, it is fine to share the intent
+        mContext.sendBroadcastAsUser(mPulseIntent, UserHandle.CURRENT);
+        return true;
+    }
+
+    private long nowMs() {
+        return mClock.nowNs() / 1000000;
+    }
+
+    private void refill(long now) {
+        long refills = (now - mLastRefillMs) / REFILL_INTERVAL_MS;
+        if (refills > 0) {
+            mTokens = (int) Math.min(BUCKET_CAPACITY, mTokens + refills);
+            mLastRefillMs += refills * REFILL_INTERVAL_MS;
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("Pulses: requested=" + mRequested + " sent=" + mSent
+                + " suppressed=" + (mCoalesced + mRateLimited)
+                + " (coalesced=" + mCoalesced + " rate limited=" + mRateLimited + ")");
+    }
+}
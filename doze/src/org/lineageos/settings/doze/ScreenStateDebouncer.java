@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Tracks the requested screen state against the state the sensors were last
+ * configured for, and only applies the final state once the screen has
+ * settled. Screen flickers shorter than the settle window never reach the
+ * sensor service. Must be used from the thread of the given handler.
+ */
+public class ScreenStateDebouncer {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "ScreenStateDebouncer";
+
+    private static final int HISTORY_SIZE = 32;
+
+    private static final int EVENT_REQUEST_OFF = 0;
+    private static final int EVENT_REQUEST_ON = 1;
+    private static final int EVENT_APPLY_OFF = 2;
+    private static final int EVENT_APPLY_ON = 3;
+
+    private static final String[] EVENT_NAMES = {
+        "request off", "request on", "apply off", "apply on"
+    };
+
+    public interface Callback {
+        void onDisplayOn();
+        void onDisplayOff();
+    }
+
+    private final Handler mHandler;
+    private final Callback mCallback;
+    private final GestureClock mClock;
+    private final long mSettleMs;
+
+    // The sensors start out disabled, which matches a screen that is on
+    private boolean mDesiredOn = true;
+    private boolean mAppliedOn = true;
+
+    private final long[] mHistoryTimes = new long[HISTORY_SIZE];
+    private final int[] mHistoryEvents = new int[HISTORY_SIZE];
+    private int mHistoryCount;
+
+    private final Runnable mApplyRunnable = this::apply;
+
+    public ScreenStateDebouncer(Handler handler, long settleMs, Callback callback,
+            GestureClock clock) {
+        mHandler = handler;
+        mClock = clock;
+        mSettleMs = settleMs;
+        mCallback = callback;
+    }
+
+    public void setScreenOn(boolean on) {
+        record(on ? EVENT_REQUEST_ON : EVENT_REQUEST_OFF);
+        mDesiredOn = on;
+        mHandler.removeCallbacks(mApplyRunnable);
+        if (mDesiredOn != mAppliedOn) {
+            mHandler.postDelayed(mApplyRunnable, mSettleMs);
+        } else if (DEBUG) {
+            Log.d(TAG, "Screen settled back to " + (on ? "on" : "off") + ", nothing to do");
+        }
+    }
+
+    public void cancel() {
+        mHandler.removeCallbacks(mApplyRunnable);
+    }
+
+    private void apply() {
+        if (mDesiredOn == mAppliedOn) {
+            return;
+        }
+        mAppliedOn = mDesiredOn;
+        record(mAppliedOn ? EVENT_APPLY_ON : EVENT_APPLY_OFF);
+        if (mAppliedOn) {
+            mCallback.onDisplayOn();
+        } else {
+            mCallback.onDisplayOff();
+        }
+    }
+
+    private void record(int event) {
+        int index = mHistoryCount % HISTORY_SIZE;
+        mHistoryTimes[index] = mClock.nowNs() / 1000000;
+        mHistoryEvents[index] = event;
+        mHistoryCount++;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Screen state (settle " + mSettleMs + "ms):");
+        pw.println("  desired=" + (mDesiredOn ? "on" : "off")
+                + " applied=" + (mAppliedOn ? "on" : "off"));
+        int start = Math.max(0, mHistoryCount - HISTORY_SIZE);
+        for (int i = start; i < mHistoryCount; i++) {
+            int index = i % HISTORY_SIZE;
+            pw.println("  " + mHistoryTimes[index] + "ms " + EVENT_NAMES[mHistoryEvents[index]]);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link GestureClock} backed by {@link SystemClock#elapsedRealtimeNanos}.
+ *
+ * Sensor timestamps are supposed to use that same timebase, but some HALs
+ * stamp events with a clock that stops in suspend. The offset between the
+ * two clocks is kept per sensor, as each sensor can come from a different
+ * HAL, and is only learned again from timestamps that can't be in the
+ * right timebase: ones in the future, and ones from before their sensor
+ * was enabled. Anything else is kept as it is, however old, as a FIFO
+ * flushed after suspend legitimately delivers events long after they
+ * happened and their spacing is what the gestures are timed by.
+ */
+public class SystemGestureClock implements GestureClock {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "SystemGestureClock";
+
+    // Slack on top of the batching latency for events of a registration
+    // shared with another listener, which may predate our enable request
+    private static final long DELIVERY_SLACK_NS = 1000L * 1000 * 1000;
+
+    private final long mEnableSlackNs;
+
+    // Time each sensor was last enabled at, 0 until then
+    private final AtomicLongArray mEnabledAtNs = new AtomicLongArray(GestureEngine.SENSOR_COUNT);
+
+    // Offset from each sensor's timestamps to elapsed realtime
+    private final AtomicLongArray mSensorOffsetNs =
+            new AtomicLongArray(GestureEngine.SENSOR_COUNT);
+
+    /**
+     * @param maxReportLatencyUs the largest batching latency events may be
+     *        delivered with
+     */
+    public SystemGestureClock(int maxReportLatencyUs) {
+        mEnableSlackNs = maxReportLatencyUs * 1000L + DELIVERY_SLACK_NS;
+    }
+
+    @Override
+    public long nowNs() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    @Override
+    public void onSensorEnabled(int sensorId) {
+        mEnabledAtNs.set(sensorId, nowNs());
+    }
+
+    @Override
+    public long fromSensorTimestamp(int sensorId, long timestampNs) {
+        long now = nowNs();
+        long converted = timestampNs + mSensorOffsetNs.get(sensorId);
+        long enabledAt = mEnabledAtNs.get(sensorId);
+        if (converted > now || (enabledAt != 0 && converted < enabledAt - mEnableSlackNs)) {
+            // Events can't come from the future, nor from before the sensor was enabled
+            long offset = now - timestampNs;
+            mSensorOffsetNs.set(sensorId, offset);
+            if (DEBUG) Log.d(TAG, "Sensor " + sensorId + " clock offset is now " + offset + "ns");
+            return now;
+        }
+        return converted;
+    }
+}
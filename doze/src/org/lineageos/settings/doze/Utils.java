@@ -17,20 +17,18 @@
 
 package org.lineageos.settings.doze;
 
+import android.app.ActivityManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorManager;
+import android.content.SharedPreferences;
 import android.os.UserHandle;
 import android.provider.Settings;
-import android.text.TextUtils;
 import android.util.Log;
 import androidx.preference.PreferenceManager;
 
 import com.android.internal.hardware.AmbientDisplayConfiguration;
 
-import java.util.List;
-
 import static android.provider.Settings.Secure.DOZE_ALWAYS_ON;
 import static android.provider.Settings.Secure.DOZE_ENABLED;
 
@@ -39,13 +37,24 @@ public final class Utils {
     private static final String TAG = "DozeUtils";
     private static final boolean DEBUG = false;
 
-    private static final String DOZE_INTENT = "com.android.systemui.doze.pulse";
-
     protected static final String ALWAYS_ON_DISPLAY = "always_on_display";
     protected static final String GESTURE_PICK_UP_KEY = "gesture_pick_up";
     protected static final String GESTURE_HAND_WAVE_KEY = "gesture_hand_wave";
     protected static final String GESTURE_POCKET_KEY = "gesture_pocket";
 
+    private static final String[] GESTURE_KEYS = {
+        GESTURE_PICK_UP_KEY, GESTURE_HAND_WAVE_KEY, GESTURE_POCKET_KEY
+    };
+
+    // Settings.Secure names of the gesture toggles, in the order of
+    // GESTURE_KEYS. They are stored per user, so that this process, which
+    // runs as the system user, can read those of any user.
+    protected static final String[] GESTURE_SETTINGS = {
+        "oneplus_doze_gesture_pick_up",
+        "oneplus_doze_gesture_hand_wave",
+        "oneplus_doze_gesture_pocket"
+    };
+
     protected static void startService(Context context) {
         if (DEBUG) Log.d(TAG, "Starting service");
         context.startServiceAsUser(new Intent(context, DozeService.class),
@@ -58,8 +67,8 @@ public final class Utils {
                 UserHandle.CURRENT);
     }
 
-    protected static void checkDozeService(Context context) {
-        if (isDozeEnabled(context) && sensorsEnabled(context) && !isAlwaysOnEnabled(context)) {
+    protected static void checkDozeService(Context context, GestureConfig config) {
+        if (isDozeEnabled(context) && config.isAnyEnabled() && !isAlwaysOnEnabled(context)) {
             startService(context);
         } else {
             stopService(context);
@@ -76,12 +85,6 @@ public final class Utils {
                 DOZE_ENABLED, enable ? 1 : 0);
     }
 
-    protected static void launchDozePulse(Context context) {
-        if (DEBUG) Log.d(TAG, "Launch doze pulse");
-        context.sendBroadcastAsUser(new Intent(DOZE_INTENT),
-                new UserHandle(UserHandle.USER_CURRENT));
-    }
-
     protected static boolean enableAlwaysOn(Context context, boolean enable) {
         return Settings.Secure.putIntForUser(context.getContentResolver(),
                 DOZE_ALWAYS_ON, enable ? 1 : 0, UserHandle.USER_CURRENT);
@@ -100,38 +103,95 @@ public final class Utils {
         return new AmbientDisplayConfiguration(context).alwaysOnAvailable();
     }
 
-    protected static boolean isGestureEnabled(Context context, String gesture) {
-        return PreferenceManager.getDefaultSharedPreferences(context)
-                .getBoolean(gesture, false);
+    /**
+     * Returns the gesture config of the user in the foreground.
+     */
+    protected static GestureConfig getGestureConfig(Context context) {
+        return getGestureConfigForUser(context, ActivityManager.getCurrentUser());
     }
 
-    protected static boolean isPickUpEnabled(Context context) {
-        return isGestureEnabled(context, GESTURE_PICK_UP_KEY);
+    /**
+     * Returns the gesture config of the given user. Gestures that can't be
+     * read are reported as disabled.
+     */
+    protected static GestureConfig getGestureConfigForUser(Context context, int userId) {
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            return new GestureConfig(
+                    isGestureEnabled(resolver, GESTURE_SETTINGS[0], userId),
+                    isGestureEnabled(resolver, GESTURE_SETTINGS[1], userId),
+                    isGestureEnabled(resolver, GESTURE_SETTINGS[2], userId));
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to read the gestures of user " + userId, e);
+            return GestureConfig.DISABLED;
+        }
     }
 
-    protected static boolean isHandwaveGestureEnabled(Context context) {
-        return isGestureEnabled(context, GESTURE_HAND_WAVE_KEY);
+    private static boolean isGestureEnabled(ContentResolver resolver, String setting,
+            int userId) {
+        String value = Settings.Secure.getStringForUser(resolver, setting, userId);
+        if (value == null) {
+            // Never set, gestures are off by default
+            return false;
+        }
+        try {
+            return Integer.parseInt(value) != 0;
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Ignoring malformed " + setting + " of user " + userId + ": " + value);
+            return false;
+        }
     }
 
-    protected static boolean isPocketGestureEnabled(Context context) {
-        return isGestureEnabled(context, GESTURE_POCKET_KEY);
+    /**
+     * Turns the gesture with the given preference key on or off for the
+     * user in the foreground.
+     */
+    protected static boolean enableGesture(Context context, String key, boolean enable) {
+        for (int i = 0; i < GESTURE_KEYS.length; i++) {
+            if (GESTURE_KEYS[i].equals(key)) {
+                return Settings.Secure.putIntForUser(context.getContentResolver(),
+                        GESTURE_SETTINGS[i], enable ? 1 : 0, UserHandle.USER_CURRENT);
+            }
+        }
+        throw new IllegalArgumentException("Unknown gesture " + key);
     }
 
-    protected static boolean sensorsEnabled(Context context) {
-        return isPickUpEnabled(context) || isHandwaveGestureEnabled(context)
-                || isPocketGestureEnabled(context);
+    /**
+     * Moves the gesture toggles older versions kept in preferences, in
+     * credential or device protected storage, to the settings of this
+     * user. Must only be called once the user is unlocked.
+     */
+    protected static void migratePreferences(Context context) {
+        migratePreferences(context, PreferenceManager.getDefaultSharedPreferences(context));
+        migratePreferences(context, PreferenceManager.getDefaultSharedPreferences(
+                context.createDeviceProtectedStorageContext()));
     }
 
-    protected static Sensor findSensorWithType(SensorManager sensorManager, String type) {
-        if (TextUtils.isEmpty(type)) {
-            return null;
-        }
-        List<Sensor> sensorList = sensorManager.getSensorList(Sensor.TYPE_ALL);
-        for (Sensor s : sensorList) {
-            if (type.equals(s.getStringType())) {
-                return s;
+    private static void migratePreferences(Context context, SharedPreferences prefs) {
+        ContentResolver resolver = context.getContentResolver();
+        SharedPreferences.Editor editor = prefs.edit();
+        boolean migrated = false;
+        for (int i = 0; i < GESTURE_KEYS.length; i++) {
+            if (!prefs.contains(GESTURE_KEYS[i])) {
+                continue;
             }
+            // Whatever was set since takes precedence
+            if (Settings.Secure.getStringForUser(resolver, GESTURE_SETTINGS[i],
+                    context.getUserId()) == null) {
+                Settings.Secure.putIntForUser(resolver, GESTURE_SETTINGS[i],
+                        prefs.getBoolean(GESTURE_KEYS[i], false) ? 1 : 0, context.getUserId());
+            }
+            editor.remove(GESTURE_KEYS[i]);
+            migrated = true;
+        }
+        if (migrated) {
+            if (DEBUG) Log.d(TAG, "Migrated the gesture preferences");
+            editor.apply();
         }
-        return null;
+    }
+
+    protected static int getMaxReportLatencyUs(Context context) {
+        return context.getResources()
+                .getInteger(R.integer.config_dozeSensorMaxReportLatencyMs) * 1000;
     }
 }
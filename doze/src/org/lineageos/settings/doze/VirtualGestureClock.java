@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+/**
+ * A {@link GestureClock} that only moves when told to, for replaying traces
+ * and driving gesture windows on a host with nanosecond precision.
+ */
+public class VirtualGestureClock implements GestureClock {
+
+    private volatile long mNowNs;
+    private volatile long mSensorOffsetNs;
+
+    @Override
+    public long nowNs() {
+        return mNowNs;
+    }
+
+    @Override
+    public long fromSensorTimestamp(int sensorId, long timestampNs) {
+        return timestampNs + mSensorOffsetNs;
+    }
+
+    public void setNs(long nowNs) {
+        mNowNs = nowNs;
+    }
+
+    public void advanceNs(long deltaNs) {
+        mNowNs += deltaNs;
+    }
+
+    /**
+     * Sets the difference between the clock and the sensor timebase, to
+     * simulate sensors that stamp events with another clock.
+     */
+    public void setSensorOffsetNs(long offsetNs) {
+        mSensorOffsetNs = offsetNs;
+    }
+}
@@ -0,0 +1,37 @@
+package org.ifaa.android.manager;
+
+import android.os.SystemProperties;
+
+/**
+ * Immutable description of what this device offers to IFAA clients, read
+ * once from system properties so that devices can override the defaults.
+ */
+final class IFAACapabilities {
+    private static final String PROP_BIO_TYPES = "ro.vendor.ifaa.bio_types";
+    private static final String PROP_DEVICE_MODEL = "ro.vendor.ifaa.device_model";
+    private static final String PROP_SENSOR_LOCATION = "ro.vendor.ifaa.sensor_location";
+
+    private static final int DEFAULT_BIO_TYPES = 0x01; // fingerprint
+    private static final String DEFAULT_DEVICE_MODEL = "ONEPLUS-A3000";
+    private static final String DEFAULT_SENSOR_LOCATION =
+            "{'type': 0, 'fullView': {'startX': 452, 'startY': 1970,'width': 174, 'height': 174, 'navConflict': true}}";
+
+    final int bioTypes;
+    final String deviceModel;
+    final String sensorLocation;
+
+    private IFAACapabilities() {
+        bioTypes = SystemProperties.getInt(PROP_BIO_TYPES, DEFAULT_BIO_TYPES);
+        deviceModel = SystemProperties.get(PROP_DEVICE_MODEL, DEFAULT_DEVICE_MODEL);
+        sensorLocation = SystemProperties.get(PROP_SENSOR_LOCATION, DEFAULT_SENSOR_LOCATION);
+    }
+
+    static IFAACapabilities get() {
+        return Holder.INSTANCE;
+    }
+
+    // Initialized on first use by the class loader, reads need no locking
+    private static final class Holder {
+        static final IFAACapabilities INSTANCE = new IFAACapabilities();
+    }
+}
@@ -4,42 +4,97 @@ import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.os.Build;
-import android.os.IBinder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Slog;
 
 import com.android.internal.app.IIFAAService;
 
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 public class IFAAManagerFactory  extends IFAAManagerV3 {
     public static IFAAManagerFactory mIFAAManagerFactory = null;
-    private static final int BIOTypeFingerprint = 0x01;
-    private static final int BIOTypeIris = 0x02;
 
     private static final int ACTIVITY_START_SUCCESS = 0;
 	private static final int ACTIVITY_START_FAILED = -1;
 
 	private static final String TAG = "IFAAManagerFactory";
+    private static final boolean DEBUG = false;
 
-    private static final String FP_SENSOR_LOCATION_PARAM =
-            "{'type': 0, 'fullView': {'startX': 452, 'startY': 1970,'width': 174, 'height': 174, 'navConflict': true}}";
     static final String IFAA_SERVICE_PACKAGE = "com.oneplus.ifaaservice";
     static final String IFAA_SERVICE_CLASS = "com.oneplus.ifaaservice.IFAAService";
     static final ComponentName IFAA_SERVICE_COMPONENT = new ComponentName(
             IFAA_SERVICE_PACKAGE,
             IFAA_SERVICE_CLASS);
-    private IIFAAService mIFAAService = null;
     private static final int BIND_IFAASER_SERVICE_TIMEOUT = 3000;
+    // bind wait included, a command that takes longer is given up on
+    static final long PROCESS_CMD_TIMEOUT_MS = 5000;
+    static final int MAX_COMMANDS_IN_FLIGHT = 4;
+    // commands waiting for a worker, more are rejected
+    static final int MAX_COMMANDS_QUEUED = 16;
+    private static final int WORKER_KEEP_ALIVE_SECONDS = 30;
+    private static final long STATS_SUMMARY_INTERVAL_MS = 15 * 60 * 1000;
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final IFAAServiceConnection mConnection;
+    private final ArrayDeque<Command> mPendingCommands = new ArrayDeque<>();
+    private final Set<Command> mCommandsInFlight = new HashSet<>();
+    private final ThreadPoolExecutor mExecutor;
+    private final IFAAStats mStats = new IFAAStats();
+    private final long mProcessCmdTimeoutMs;
 
     public IFAAManagerFactory(Context context) {
-        // to ensure that IFAAService was bound successfully
-        ensureIfaaService(context, 0);
+        this(context, newHandler(), PROCESS_CMD_TIMEOUT_MS);
+    }
+
+    /**
+     * Runs the connection and the command timeouts on the given handler,
+     * and gives up on processCmdV2 after the given time.
+     */
+    IFAAManagerFactory(Context context, Handler handler, long processCmdTimeoutMs) {
+        mHandler = handler;
+        mProcessCmdTimeoutMs = processCmdTimeoutMs;
+        mConnection = new IFAAServiceConnection(IFAA_SERVICE_COMPONENT, mHandler,
+                mConnectionCallback);
+
+        mExecutor = new ThreadPoolExecutor(MAX_COMMANDS_IN_FLIGHT, MAX_COMMANDS_IN_FLIGHT,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_COMMANDS_QUEUED));
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        // bind eagerly, so that IFAAService is usually connected by the first command
+        mConnection.bind(context);
+
+        mHandler.postDelayed(mStatsSummaryRunnable, STATS_SUMMARY_INTERVAL_MS);
+    }
+
+    private static Handler newHandler() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return new Handler(thread.getLooper());
     }
 
     public int getSupportBIOTypes(Context context) {
-        Slog.e(TAG, "BIOTypeFingerprint" + BIOTypeFingerprint);
-        return BIOTypeFingerprint;
+        int bioTypes = IFAACapabilities.get().bioTypes;
+        if (DEBUG) Slog.d(TAG, "getSupportBIOTypes: " + bioTypes);
+        return bioTypes;
     }
 
     public void setExtInfo(int authType, String keyExtInfo, String valExtInfo) {
@@ -47,32 +102,32 @@ public class IFAAManagerFactory  extends IFAAManagerV3 {
 
     public String getExtInfo(int authType, String keyExtInfo) {
         if (IFAAManagerV3.KEY_GET_SENSOR_LOCATION.equals(keyExtInfo)) {
-            return FP_SENSOR_LOCATION_PARAM;
+            return IFAACapabilities.get().sensorLocation;
         }
-        Slog.e(TAG, "getExtInfo: Didn't request supported ext info");
+        if (DEBUG) Slog.d(TAG, "getExtInfo: Didn't request supported ext info");
         return "";
     }
 
     public int startBIOManager(Context context, int authType) {
+        long start = SystemClock.elapsedRealtimeNanos();
         try {
-            Slog.e(TAG, "startBIOManager" + context);
+            if (DEBUG) Slog.d(TAG, "startBIOManager " + context);
             Intent intent = new Intent();
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             intent.setComponent(new ComponentName("com.android.settings", "com.android.settings.Settings$SecuritySettingsActivity"));
-            Slog.e(TAG, "OOS context" + context);
             context.startActivity(intent);
          } catch (ActivityNotFoundException e) {
             e.printStackTrace();
             return ACTIVITY_START_FAILED;
          } finally {
+            mStats.startBIOManager.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
             return ACTIVITY_START_SUCCESS;
          }
     }
 
     public String getDeviceModel() {
         //return Build.MODEL;
-        Slog.e(TAG, "device model");
-        return "ONEPLUS-A3000";
+        return IFAACapabilities.get().deviceModel;
     }
 
     public int getVersion() {
@@ -80,7 +135,7 @@ public class IFAAManagerFactory  extends IFAAManagerV3 {
     }
 
     public static IFAAManagerV3 getIFAAManager(Context context, int authType) {
-         Slog.e(TAG, "getIFAAManager");
+        if (DEBUG) Slog.d(TAG, "getIFAAManager");
         if(mIFAAManagerFactory == null) {
             mIFAAManagerFactory = new IFAAManagerFactory(context);
             return mIFAAManagerFactory;
@@ -92,51 +147,166 @@ public class IFAAManagerFactory  extends IFAAManagerV3 {
     public byte[] processCmdV2(Context context, byte[] data){
         //if(Build.DEBUG_ONEPLUS) Slog.i(TAG, "processCmdV2", new RuntimeException("IFAAManagerFactory").fillInStackTrace());
 
-        // set default return as null
-        byte[] result = null;
-
-        // to ensure that IFAAService was bound successfully
-        ensureIfaaService(context, BIND_IFAASER_SERVICE_TIMEOUT);
-
-        // get processCmdV2 from pass through remote service: IFAAService
+        CompletableFuture<byte[]> future = processCmdV2Async(context, data);
         try {
-            result = mIFAAService.processCmdV2(data);
-        } catch (RemoteException e) {
+            return future.get(mProcessCmdTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // don't send it anymore if it is still waiting for a worker
+            future.cancel(true);
+            mStats.timeouts.incrementAndGet();
+            Slog.e(TAG, "processCmdV2 of remote IFAAService timed out");
+            return null;
+        } catch (CancellationException | ExecutionException | InterruptedException e) {
             Slog.e(TAG, "exception while invoking processCmdV2 of remote IFAAService: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs processCmdV2 of IFAAService on a worker thread. Up to
+     * MAX_COMMANDS_IN_FLIGHT commands are sent to IFAAService concurrently,
+     * and up to MAX_COMMANDS_QUEUED more wait for a worker. Beyond that
+     * commands fail right away with a RejectedExecutionException.
+     * Commands issued before IFAAService is connected are queued until it
+     * is, or fail with a TimeoutException after BIND_IFAASER_SERVICE_TIMEOUT.
+     * Commands in flight when IFAAService dies are cancelled, and while it
+     * is down new commands fail right away with an IllegalStateException.
+     */
+    public CompletableFuture<byte[]> processCmdV2Async(Context context, byte[] data) {
+        Command command = new Command(data);
+        synchronized (mLock) {
+            IIFAAService service = mConnection.getService();
+            if (service != null) {
+                submitLocked(command, service);
+                return command.mFuture;
+            }
+
+            mStats.nullServiceHits.incrementAndGet();
+            if (mConnection.isCircuitOpen()) {
+                mConnection.recordFastFailure();
+                command.mFuture.completeExceptionally(
+                        new IllegalStateException("IFAAService is unavailable"));
+            } else {
+                // queue the command, it is run as soon as IFAAService is connected
+                mConnection.bind(context);
+                mStats.bindWaits.incrementAndGet();
+                command.mQueued = true;
+                mPendingCommands.add(command);
+                mHandler.postDelayed(command::onBindTimeout, BIND_IFAASER_SERVICE_TIMEOUT);
+            }
         }
+        return command.mFuture;
+    }
 
-        return result;
+    private void submitLocked(Command command, IIFAAService service) {
+        if (command.mQueued) {
+            mStats.bindWait.record(
+                    (SystemClock.elapsedRealtimeNanos() - command.mCreatedNs) / 1000);
+        }
+        mCommandsInFlight.add(command);
+        try {
+            mExecutor.execute(() -> command.run(service));
+        } catch (RejectedExecutionException e) {
+            mCommandsInFlight.remove(command);
+            mStats.rejections.incrementAndGet();
+            command.mFuture.completeExceptionally(e);
+        }
     }
 
-    private void ensureIfaaService(Context context, int timeout) {
-        if(mIFAAService == null) {
-            Intent service = new Intent().setComponent(IFAA_SERVICE_COMPONENT);
-            context.bindService(service, mConnection, Context.BIND_AUTO_CREATE);
-            if (timeout > 0) {
-                Slog.e(TAG, "Waiting for IFAAService connected");
-                synchronized (mConnection) {
-                    try {
-                        mConnection.wait(timeout);
-                    } catch (InterruptedException e) {
-                        Slog.e(TAG, "exception while binding IFAAService: " + e);
-                    }
+    private final class Command {
+        final byte[] mData;
+        final CompletableFuture<byte[]> mFuture = new CompletableFuture<>();
+        final long mCreatedNs = SystemClock.elapsedRealtimeNanos();
+        // guarded by mLock
+        boolean mQueued;
+
+        Command(byte[] data) {
+            mData = data;
+            mFuture.whenComplete((result, e) -> mStats.processCmdV2.record(
+                    (SystemClock.elapsedRealtimeNanos() - mCreatedNs) / 1000));
+        }
+
+        void run(IIFAAService service) {
+            if (mFuture.isDone()) {
+                return;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                // get processCmdV2 from pass through remote service: IFAAService
+                mFuture.complete(service.processCmdV2(mData));
+            } catch (RemoteException e) {
+                mStats.remoteExceptions.incrementAndGet();
+                mStats.callFailures.incrementAndGet();
+                mFuture.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                mStats.callFailures.incrementAndGet();
+                mFuture.completeExceptionally(e);
+            } finally {
+                mStats.remoteCall.record((SystemClock.elapsedRealtimeNanos() - start) / 1000);
+                synchronized (mLock) {
+                    mCommandsInFlight.remove(this);
                 }
             }
         }
+
+        void onBindTimeout() {
+            boolean pending;
+            synchronized (mLock) {
+                pending = mPendingCommands.remove(this);
+            }
+            if (pending) {
+                mStats.timeouts.incrementAndGet();
+                mConnection.onBindTimeout();
+                mFuture.completeExceptionally(
+                        new TimeoutException("Timed out waiting for IFAAService"));
+            }
+        }
+    }
+
+    /**
+     * Prints the IFAAService connection state, the latency histograms of
+     * processCmdV2, the bind waits and startBIOManager, and the error counters.
+     */
+    public void dump(PrintWriter pw) {
+        mConnection.dump(pw);
+        mStats.dump(pw);
     }
 
-    private ServiceConnection mConnection = new ServiceConnection() {
+    private final Runnable mStatsSummaryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String summary = mStats.periodicSummary();
+            if (summary != null) {
+                Slog.i(TAG, summary);
+            }
+            mHandler.postDelayed(this, STATS_SUMMARY_INTERVAL_MS);
+        }
+    };
+
+    private final IFAAServiceConnection.Callback mConnectionCallback =
+            new IFAAServiceConnection.Callback() {
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            mIFAAService = IIFAAService.Stub.asInterface(service);
-           // if(Build.DEBUG_ONEPLUS) Slog.i(TAG, "IFAAService was bound successfully: " + mIFAAService);
-            synchronized (mConnection) {
-                notifyAll();
+        public void onServiceConnected(IIFAAService service) {
+            synchronized (mLock) {
+                // drain the commands queued while binding
+                Command command;
+                while ((command = mPendingCommands.poll()) != null) {
+                    submitLocked(command, service);
+                }
             }
+           // if(Build.DEBUG_ONEPLUS) Slog.i(TAG, "IFAAService was bound successfully: " + service);
         }
 
-        public void onServiceDisconnected(ComponentName name) {
-            mIFAAService = null;
+        @Override
+        public void onServiceLost() {
+            List<Command> cancelled;
+            synchronized (mLock) {
+                cancelled = new ArrayList<>(mCommandsInFlight);
+                mCommandsInFlight.clear();
+            }
+            for (Command command : cancelled) {
+                command.mFuture.cancel(true);
+            }
            // if(Build.DEBUG_ONEPLUS) Slog.i(TAG, "IFAAService was unbound");
         }
     };
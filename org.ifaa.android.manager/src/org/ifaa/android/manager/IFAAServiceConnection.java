@@ -0,0 +1,231 @@
+package org.ifaa.android.manager;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Slog;
+
+import com.android.internal.app.IIFAAService;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps IFAAService bound: watches the binder with a death recipient,
+ * rebinds with exponential backoff when the binding can't recover on its
+ * own and opens a circuit breaker while the service is down, so that callers can fail fast instead
+ * of waiting for a bind timeout.
+ */
+final class IFAAServiceConnection implements ServiceConnection, IBinder.DeathRecipient {
+    private static final String TAG = "IFAAServiceConnection";
+
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 64000;
+
+    interface Callback {
+        void onServiceConnected(IIFAAService service);
+        void onServiceLost();
+    }
+
+    private final ComponentName mComponent;
+    private final Handler mHandler;
+    private final Callback mCallback;
+
+    private final Object mLock = new Object();
+    private Context mContext;
+    private IIFAAService mService;
+    private IBinder mBinder;
+    private boolean mBound;
+    private boolean mCircuitOpen;
+    private long mBackoffMs = MIN_BACKOFF_MS;
+    private long mBindStartMs;
+
+    private final LatencyHistogram mBindLatency = new LatencyHistogram();
+    private final AtomicLong mFastFailures = new AtomicLong();
+    private final AtomicLong mServiceLosses = new AtomicLong();
+    private final AtomicLong mRebinds = new AtomicLong();
+
+    private final Runnable mRebindRunnable = this::rebind;
+
+    IFAAServiceConnection(ComponentName component, Handler handler, Callback callback) {
+        mComponent = component;
+        mHandler = handler;
+        mCallback = callback;
+    }
+
+    void bind(Context context) {
+        synchronized (mLock) {
+            if (mContext == null) {
+                Context appContext = context.getApplicationContext();
+                mContext = appContext != null ? appContext : context;
+            }
+            if (!mBound) {
+                bindLocked();
+            }
+        }
+    }
+
+    IIFAAService getService() {
+        synchronized (mLock) {
+            return mService;
+        }
+    }
+
+    /**
+     * Returns true while IFAAService is known to be down. Commands should
+     * fail right away instead of waiting for it.
+     */
+    boolean isCircuitOpen() {
+        synchronized (mLock) {
+            return mCircuitOpen;
+        }
+    }
+
+    /**
+     * Called when a command gave up waiting for the service to connect.
+     */
+    void onBindTimeout() {
+        synchronized (mLock) {
+            if (mService == null && !mCircuitOpen) {
+                Slog.e(TAG, "IFAAService did not connect in time");
+                mCircuitOpen = true;
+                scheduleRebindLocked();
+            }
+        }
+    }
+
+    void recordFastFailure() {
+        mFastFailures.incrementAndGet();
+    }
+
+    private void bindLocked() {
+        mBindStartMs = SystemClock.uptimeMillis();
+        Intent intent = new Intent().setComponent(mComponent);
+        // deliver the connection on our own thread, so that callers waiting
+        // on the main thread are woken up as soon as the service is connected
+        mBound = mContext.bindServiceAsUser(intent, this, Context.BIND_AUTO_CREATE,
+                mHandler, Process.myUserHandle());
+        if (!mBound) {
+            Slog.e(TAG, "Failed to bind IFAAService");
+            mCircuitOpen = true;
+            scheduleRebindLocked();
+        }
+    }
+
+    private void scheduleRebindLocked() {
+        mHandler.removeCallbacks(mRebindRunnable);
+        mHandler.postDelayed(mRebindRunnable, mBackoffMs);
+        mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    private void rebind() {
+        synchronized (mLock) {
+            if (mService != null) {
+                return;
+            }
+            mRebinds.incrementAndGet();
+            if (mBound) {
+                mContext.unbindService(this);
+                mBound = false;
+            }
+            bindLocked();
+            if (mBound) {
+                // check again later in case the connection never arrives
+                scheduleRebindLocked();
+            }
+        }
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder binder) {
+        IIFAAService service = IIFAAService.Stub.asInterface(binder);
+        synchronized (mLock) {
+            try {
+                binder.linkToDeath(this, 0);
+            } catch (RemoteException e) {
+                // died before we got hold of it, the rebind takes care of it
+                return;
+            }
+            mBinder = binder;
+            mService = service;
+            mCircuitOpen = false;
+            mBackoffMs = MIN_BACKOFF_MS;
+            mHandler.removeCallbacks(mRebindRunnable);
+            mBindLatency.record((SystemClock.uptimeMillis() - mBindStartMs) * 1000);
+        }
+        mCallback.onServiceConnected(service);
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        // the binding stays valid and the system connects it again once
+        // IFAAService is restarted, rebinding would only race with that
+        onServiceLost(false);
+    }
+
+    @Override
+    public void onBindingDied(ComponentName name) {
+        onServiceLost(false);
+        synchronized (mLock) {
+            // the binding is unusable, replace it right away
+            mHandler.removeCallbacks(mRebindRunnable);
+            mHandler.post(mRebindRunnable);
+        }
+    }
+
+    @Override
+    public void onNullBinding(ComponentName name) {
+        Slog.e(TAG, "IFAAService refused the binding");
+        synchronized (mLock) {
+            mCircuitOpen = true;
+            // the binding will never deliver a service, drop it and try
+            // again later in case IFAAService changes its mind
+            if (mBound) {
+                mContext.unbindService(this);
+                mBound = false;
+            }
+            scheduleRebindLocked();
+        }
+    }
+
+    @Override
+    public void binderDied() {
+        // rebind later in case the binding doesn't come back on its own
+        onServiceLost(true);
+    }
+
+    private void onServiceLost(boolean rebind) {
+        synchronized (mLock) {
+            if (mService == null) {
+                return;
+            }
+            mBinder.unlinkToDeath(this, 0);
+            mBinder = null;
+            mService = null;
+            mCircuitOpen = true;
+            mBindStartMs = SystemClock.uptimeMillis();
+            mServiceLosses.incrementAndGet();
+            if (rebind) {
+                scheduleRebindLocked();
+            }
+        }
+        mCallback.onServiceLost();
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("IFAAService: connected=" + (mService != null)
+                    + " circuitOpen=" + mCircuitOpen + " backoff=" + mBackoffMs + "ms");
+        }
+        pw.println("  bind latency: " + mBindLatency.summary());
+        pw.println("  fast failures: " + mFastFailures.get()
+                + " service losses: " + mServiceLosses.get()
+                + " rebinds: " + mRebinds.get());
+    }
+}
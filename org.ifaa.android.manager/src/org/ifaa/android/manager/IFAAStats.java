@@ -0,0 +1,61 @@
+package org.ifaa.android.manager;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free latency recorders and counters for the IFAA operations.
+ */
+final class IFAAStats {
+    // End to end, as seen by the caller of processCmdV2
+    final LatencyHistogram processCmdV2 = new LatencyHistogram();
+    // Time spent by the binder call itself
+    final LatencyHistogram remoteCall = new LatencyHistogram();
+    // Time commands spent queued waiting for IFAAService to connect
+    final LatencyHistogram bindWait = new LatencyHistogram();
+    final LatencyHistogram startBIOManager = new LatencyHistogram();
+
+    final AtomicLong bindWaits = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong callFailures = new AtomicLong();
+    final AtomicLong remoteExceptions = new AtomicLong();
+    final AtomicLong nullServiceHits = new AtomicLong();
+    final AtomicLong rejections = new AtomicLong();
+
+    private long mLastSummaryCount;
+
+    void dump(PrintWriter pw) {
+        pw.println("IFAA operations:");
+        pw.println("  processCmdV2: " + processCmdV2.summary());
+        long calls = remoteCall.getCount();
+        long failures = callFailures.get();
+        pw.println("  remote call: " + remoteCall.summary());
+        pw.println("  remote call failures: " + failures + "/" + calls
+                + " (" + (calls > 0 ? failures * 100 / calls : 0) + "%)");
+        pw.println("  bind wait: " + bindWait.summary());
+        pw.println("  startBIOManager: " + startBIOManager.summary());
+        pw.println("  bind waits=" + bindWaits.get() + " timeouts=" + timeouts.get()
+                + " remote exceptions=" + remoteExceptions.get()
+                + " null service hits=" + nullServiceHits.get()
+                + " rejections=" + rejections.get());
+    }
+
+    /**
+     * Returns a one line summary, or null if no command was processed since
+     * the previous summary.
+     */
+    synchronized String periodicSummary() {
+        long count = processCmdV2.getCount();
+        if (count == mLastSummaryCount) {
+            return null;
+        }
+        mLastSummaryCount = count;
+        return "processCmdV2 n=" + count
+                + " p50=" + processCmdV2.getPercentileUs(50) + "us"
+                + " p99=" + processCmdV2.getPercentileUs(99) + "us"
+                + " max=" + processCmdV2.getMaxUs() + "us"
+                + " bindWaits=" + bindWaits.get() + " timeouts=" + timeouts.get()
+                + " remoteExceptions=" + remoteExceptions.get()
+                + " nullService=" + nullServiceHits.get();
+    }
+}
@@ -0,0 +1,94 @@
+package org.ifaa.android.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, each split into
+ * 8 linear sub-buckets, which bounds the error of reported percentiles to
+ * 12.5%. Values are recorded in microseconds.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Covers values up to 2^40us, far beyond any timeout we use
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = SUB_BUCKETS * (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2);
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalUs = new AtomicLong();
+    private final AtomicLong mMaxUs = new AtomicLong();
+
+    void record(long valueUs) {
+        if (valueUs < 0) {
+            valueUs = 0;
+        }
+        mCounts.incrementAndGet(indexOf(valueUs));
+        mTotalCount.incrementAndGet();
+        mTotalUs.addAndGet(valueUs);
+        long max;
+        while (valueUs > (max = mMaxUs.get()) && !mMaxUs.compareAndSet(max, valueUs)) {
+            // retry
+        }
+    }
+
+    long getCount() {
+        return mTotalCount.get();
+    }
+
+    long getMeanUs() {
+        long count = mTotalCount.get();
+        return count > 0 ? mTotalUs.get() / count : 0;
+    }
+
+    long getMaxUs() {
+        return mMaxUs.get();
+    }
+
+    /**
+     * Returns the lower bound of the bucket holding the given percentile.
+     */
+    long getPercentileUs(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return valueOf(i);
+            }
+        }
+        return mMaxUs.get();
+    }
+
+    String summary() {
+        return "count=" + getCount() + " mean=" + getMeanUs() + "us"
+                + " p50=" + getPercentileUs(50) + "us"
+                + " p90=" + getPercentileUs(90) + "us"
+                + " p99=" + getPercentileUs(99) + "us"
+                + " max=" + getMaxUs() + "us";
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return Math.min(SUB_BUCKETS * (shift + 1) + sub, BUCKETS - 1);
+    }
+
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+}
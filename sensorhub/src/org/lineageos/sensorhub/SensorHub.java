@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.sensorhub;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide owner of the sensor registrations used by the doze and
+ * pocketmode packages. Each physical sensor is registered with the
+ * {@link SensorManager} at most once; events are fanned out to every
+ * listener subscribed to it.
+ *
+ * Sharing only works between users in the same APK. A copy of this
+ * library linked into another APK is loaded by that APK's own class
+ * loader and ends up with its own instance, even in the same process.
+ *
+ * All registration work and all event delivery happen on a single
+ * background thread. Enable and disable requests are merged per listener,
+ * so a burst such as on/off/on only results in the final state being
+ * applied.
+ */
+public final class SensorHub {
+
+    private static final boolean DEBUG = false;
+    private static final String TAG = "SensorHub";
+
+    // Sampling period used for every registration, SENSOR_DELAY_NORMAL
+    private static final int SAMPLING_PERIOD_US = 200000;
+
+    private static SensorHub sInstance;
+
+    private final SensorManager mSensorManager;
+    private final Handler mHandler;
+    private final SensorTraceRecorder mTraceRecorder;
+
+    // Only touched on the hub thread
+    private final Map<Sensor, Registration> mRegistrations = new HashMap<>();
+
+    // Listeners with a request pending or a sensor subscribed
+    private final Map<SensorEventListener, Request> mRequests = new HashMap<>();
+
+    // String type to sensor, built on first lookup and dropped whenever the
+    // set of dynamic sensors changes. Built and dropped under
+    // mSensorIndexLock, so that a drop can't be overwritten by an index
+    // built from the sensor lists it invalidates.
+    private final Object mSensorIndexLock = new Object();
+    private volatile Map<String, Sensor> mSensorIndex;
+
+    // Types already reported as missing, guarded by itself
+    private final Set<String> mMissingSensors = new HashSet<>();
+
+    private SensorHub(Context context) {
+        mSensorManager = context.getSystemService(SensorManager.class);
+        mTraceRecorder = SensorTraceRecorder.create(context);
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        mSensorManager.registerDynamicSensorCallback(new SensorManager.DynamicSensorCallback() {
+            @Override
+            public void onDynamicSensorConnected(Sensor sensor) {
+                invalidateSensorIndex();
+            }
+
+            @Override
+            public void onDynamicSensorDisconnected(Sensor sensor) {
+                invalidateSensorIndex();
+            }
+        }, mHandler);
+    }
+
+    public static synchronized SensorHub getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SensorHub(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public SensorManager getSensorManager() {
+        return mSensorManager;
+    }
+
+    /**
+     * Returns the handler of the hub thread, on which all sensor events are
+     * delivered. Work posted here is ordered with the pending enable and
+     * disable requests.
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Returns the sensor with the given string type, or null if the device
+     * doesn't have it. Lookups are served from an index built once per
+     * process, so they are cheap enough to be done whenever a listener is
+     * created.
+     */
+    public Sensor getSensor(String type) {
+        if (TextUtils.isEmpty(type)) {
+            return null;
+        }
+        Map<String, Sensor> index = mSensorIndex;
+        if (index == null) {
+            synchronized (mSensorIndexLock) {
+                index = mSensorIndex;
+                if (index == null) {
+                    index = buildSensorIndex();
+                    mSensorIndex = index;
+                }
+            }
+        }
+        Sensor sensor = index.get(type);
+        if (sensor == null) {
+            synchronized (mMissingSensors) {
+                if (mMissingSensors.add(type)) {
+                    Log.w(TAG, "Sensor " + type + " is missing");
+                }
+            }
+        }
+        return sensor;
+    }
+
+    /**
+     * Returns whether the device has a sensor with the given string type.
+     */
+    public boolean isSensorAvailable(String type) {
+        return getSensor(type) != null;
+    }
+
+    private Map<String, Sensor> buildSensorIndex() {
+        Map<String, Sensor> index = new HashMap<>();
+        addToIndex(index, mSensorManager.getSensorList(Sensor.TYPE_ALL));
+        addToIndex(index, mSensorManager.getDynamicSensorList(Sensor.TYPE_ALL));
+        if (DEBUG) Log.d(TAG, "Indexed " + index.size() + " sensors");
+        return index;
+    }
+
+    private static void addToIndex(Map<String, Sensor> index, Iterable<Sensor> sensors) {
+        if (sensors == null) {
+            return;
+        }
+        for (Sensor s : sensors) {
+            // Keep the first sensor of a type, like the scans this replaces
+            if (!index.containsKey(s.getStringType())) {
+                index.put(s.getStringType(), s);
+            }
+        }
+    }
+
+    private void invalidateSensorIndex() {
+        if (DEBUG) Log.d(TAG, "Dynamic sensors changed, dropping the sensor index");
+        synchronized (mSensorIndexLock) {
+            mSensorIndex = null;
+        }
+        synchronized (mMissingSensors) {
+            mMissingSensors.clear();
+        }
+    }
+
+    /**
+     * Records a broadcast, one of the {@link SensorTraceRecorder} SOURCE_*
+     * constants, in the sensor trace if tracing is enabled.
+     */
+    public void recordBroadcast(int source) {
+        if (mTraceRecorder != null) {
+            mTraceRecorder.record(SystemClock.elapsedRealtimeNanos(), source, 0);
+        }
+    }
+
+    /**
+     * Requests the listener to be subscribed to or unsubscribed from the
+     * given sensor. Requests are applied asynchronously on the hub thread;
+     * only the last request made before they are applied takes effect.
+     */
+    public void setEnabled(Sensor sensor, SensorEventListener listener, boolean enabled) {
+        setEnabled(sensor, listener, enabled, 0);
+    }
+
+    /**
+     * Like {@link #setEnabled(Sensor, SensorEventListener, boolean)}, but
+     * lets the listener tolerate its events being batched in the sensor FIFO
+     * for up to {@code maxReportLatencyUs}. The sensor is registered with the
+     * lowest latency requested by any of its subscribers, so batching only
+     * takes effect when every subscriber opted in.
+     */
+    public void setEnabled(Sensor sensor, SensorEventListener listener, boolean enabled,
+            int maxReportLatencyUs) {
+        if (sensor == null) {
+            Log.w(TAG, "Ignoring request for a missing sensor");
+            return;
+        }
+        synchronized (mRequests) {
+            Request request = mRequests.get(listener);
+            if (request == null) {
+                request = new Request(listener);
+                mRequests.put(listener, request);
+            }
+            request.mSensor = sensor;
+            request.mEnabled = enabled;
+            request.mMaxReportLatencyUs = maxReportLatencyUs;
+            if (!request.mPending) {
+                request.mPending = true;
+                mHandler.post(request);
+            }
+        }
+    }
+
+    private void applyRequest(Request request) {
+        Sensor sensor;
+        boolean enabled;
+        int maxReportLatencyUs;
+        synchronized (mRequests) {
+            request.mPending = false;
+            sensor = request.mSensor;
+            enabled = request.mEnabled;
+            maxReportLatencyUs = request.mMaxReportLatencyUs;
+        }
+
+        if (request.mAppliedSensor != null && (!enabled || request.mAppliedSensor != sensor)) {
+            unsubscribe(request.mAppliedSensor, request.mListener);
+            request.mAppliedSensor = null;
+        }
+        if (enabled && (request.mAppliedSensor == null
+                || request.mAppliedLatencyUs != maxReportLatencyUs)) {
+            subscribe(sensor, request.mListener, maxReportLatencyUs);
+            request.mAppliedSensor = sensor;
+            request.mAppliedLatencyUs = maxReportLatencyUs;
+        }
+
+        synchronized (mRequests) {
+            // Fully disabled, so there is nothing left to remember about the
+            // listener unless it made a new request in the meantime
+            if (request.mAppliedSensor == null && !request.mPending) {
+                mRequests.remove(request.mListener);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener for the given sensor, registering the sensor with the
+     * framework if this is its first subscriber.
+     */
+    private void subscribe(Sensor sensor, SensorEventListener listener,
+            int maxReportLatencyUs) {
+        Registration registration = mRegistrations.get(sensor);
+        if (registration == null) {
+            registration = new Registration(sensor, mTraceRecorder);
+            mRegistrations.put(sensor, registration);
+        }
+        boolean added = registration.add(listener);
+        registration.mRequestedLatencies.put(listener, maxReportLatencyUs);
+        if (added && registration.size() == 1) {
+            register(sensor, registration);
+        } else {
+            updateLatency(sensor, registration);
+        }
+    }
+
+    /**
+     * Removes a listener for the given sensor, unregistering the sensor from
+     * the framework once its last subscriber is gone.
+     */
+    private void unsubscribe(Sensor sensor, SensorEventListener listener) {
+        Registration registration = mRegistrations.get(sensor);
+        if (registration == null) {
+            return;
+        }
+        if (!registration.remove(listener)) {
+            return;
+        }
+        registration.mRequestedLatencies.remove(listener);
+        if (registration.size() == 0) {
+            if (DEBUG) Log.d(TAG, "Unregistering " + sensor.getStringType());
+            mSensorManager.unregisterListener(registration, sensor);
+            mRegistrations.remove(sensor);
+        } else {
+            updateLatency(sensor, registration);
+        }
+    }
+
+    private void register(Sensor sensor, Registration registration) {
+        registration.mReportLatencyUs = computeLatency(sensor, registration);
+        if (DEBUG) Log.d(TAG, "Registering " + sensor.getStringType()
+                + " with max report latency " + registration.mReportLatencyUs + "us");
+        mSensorManager.registerListener(registration, sensor,
+                SAMPLING_PERIOD_US, registration.mReportLatencyUs, mHandler);
+    }
+
+    private void updateLatency(Sensor sensor, Registration registration) {
+        if (computeLatency(sensor, registration) != registration.mReportLatencyUs) {
+            mSensorManager.unregisterListener(registration, sensor);
+            register(sensor, registration);
+        }
+    }
+
+    private static int computeLatency(Sensor sensor, Registration registration) {
+        int fifoSize = sensor.getFifoMaxEventCount();
+        if (fifoSize == 0) {
+            // No hardware FIFO, events can't be batched
+            return 0;
+        }
+        int latency = Integer.MAX_VALUE;
+        for (int requested : registration.mRequestedLatencies.values()) {
+            latency = Math.min(latency, requested);
+        }
+        // Flush before the FIFO could overflow and drop events
+        long fifoLatency = (long) fifoSize * SAMPLING_PERIOD_US;
+        return (int) Math.max(0, Math.min(latency, fifoLatency));
+    }
+
+    private final class Request implements Runnable {
+        final SensorEventListener mListener;
+
+        // Desired state, guarded by mRequests
+        Sensor mSensor;
+        boolean mEnabled;
+        int mMaxReportLatencyUs;
+        boolean mPending;
+
+        // Applied state, only touched on the hub thread
+        Sensor mAppliedSensor;
+        int mAppliedLatencyUs;
+
+        Request(SensorEventListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            applyRequest(this);
+        }
+    }
+
+    private static final class Registration implements SensorEventListener {
+        private final int mTraceSource;
+        private final SensorTraceRecorder mTraceRecorder;
+
+        // Only touched on the hub thread
+        final Map<SensorEventListener, Integer> mRequestedLatencies = new HashMap<>();
+        int mReportLatencyUs;
+
+        // Copy-on-write so that a listener may unsubscribe while events are fanned out
+        private volatile SensorEventListener[] mListeners = new SensorEventListener[0];
+
+        Registration(Sensor sensor, SensorTraceRecorder traceRecorder) {
+            mTraceSource = sensor.getStringType().hashCode();
+            mTraceRecorder = traceRecorder;
+        }
+
+        int size() {
+            return mListeners.length;
+        }
+
+        boolean add(SensorEventListener listener) {
+            SensorEventListener[] listeners = mListeners;
+            for (SensorEventListener l : listeners) {
+                if (l == listener) {
+                    return false;
+                }
+            }
+            listeners = Arrays.copyOf(listeners, listeners.length + 1);
+            listeners[listeners.length - 1] = listener;
+            mListeners = listeners;
+            return true;
+        }
+
+        boolean remove(SensorEventListener listener) {
+            SensorEventListener[] listeners = mListeners;
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    SensorEventListener[] updated = new SensorEventListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, updated, 0, i);
+                    System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                    mListeners = updated;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            // Batched events arrive back to back in timestamp order, so
+            // consumers must rely on event.timestamp rather than the time
+            // of delivery.
+            if (mTraceRecorder != null) {
+                mTraceRecorder.record(event.timestamp, mTraceSource, event.values[0]);
+            }
+            for (SensorEventListener listener : mListeners) {
+                listener.onSensorChanged(event);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            for (SensorEventListener listener : mListeners) {
+                listener.onAccuracyChanged(sensor, accuracy);
+            }
+        }
+    }
+}
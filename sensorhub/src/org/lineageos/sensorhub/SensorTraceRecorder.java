@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.sensorhub;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size, memory-mapped ring of sensor events and screen state
+ * broadcasts, used to reproduce gesture issues offline.
+ *
+ * File layout, all values big endian:
+ * <pre>
+ *   header: int magic, int version, int capacity, int reserved, long count
+ *   record: long timestampNs, int source, float value
+ * </pre>
+ * Records are written at {@code count % capacity}, so once the ring is full
+ * the oldest ones are overwritten. Sensor events use the hash code of the
+ * sensor string type as source, broadcasts and process starts use the
+ * SOURCE_* constants. The ring is kept across process restarts, as long as
+ * the header matches this version.
+ */
+public final class SensorTraceRecorder {
+
+    private static final String TAG = "SensorTraceRecorder";
+
+    private static final String PROP_ENABLED = "persist.sys.sensorhub.trace";
+    private static final String FILE_NAME = "sensor_trace.bin";
+
+    public static final int MAGIC = 0x53485452; // "SHTR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 16;
+    public static final int OFFSET_CAPACITY = 8;
+    public static final int OFFSET_COUNT = 16;
+
+    public static final int SOURCE_SCREEN_ON = 1;
+    public static final int SOURCE_SCREEN_OFF = 2;
+    public static final int SOURCE_USER_PRESENT = 3;
+    public static final int SOURCE_PROCESS_START = 4;
+
+    // 1 MiB of records
+    private static final int CAPACITY = 65536;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private long mCount;
+
+    private SensorTraceRecorder(MappedByteBuffer buffer, int capacity, long count) {
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mCount = count;
+    }
+
+    /**
+     * Maps the trace file if tracing is enabled, returns null otherwise.
+     */
+    static SensorTraceRecorder create(Context context) {
+        if (!SystemProperties.getBoolean(PROP_ENABLED, false)) {
+            return null;
+        }
+
+        // Device protected storage, so that tracing works before first unlock
+        File file = new File(context.createDeviceProtectedStorageContext().getFilesDir(),
+                FILE_NAME);
+        long size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, size);
+            long count = buffer.getLong(OFFSET_COUNT);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(OFFSET_CAPACITY) != CAPACITY || count < 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(OFFSET_CAPACITY, CAPACITY);
+                buffer.putInt(12, 0);
+                count = 0;
+                buffer.putLong(OFFSET_COUNT, count);
+            }
+            // Whatever led to the restart is usually what the trace is wanted for
+            Log.i(TAG, "Recording sensor trace to " + file + " after " + count + " records");
+            SensorTraceRecorder recorder = new SensorTraceRecorder(buffer, CAPACITY, count);
+            recorder.record(SystemClock.elapsedRealtimeNanos(), SOURCE_PROCESS_START, 0);
+            return recorder;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map sensor trace file", e);
+            return null;
+        }
+    }
+
+    public synchronized void record(long timestampNs, int source, float value) {
+        int offset = HEADER_SIZE + (int) (mCount % mCapacity) * RECORD_SIZE;
+        mBuffer.putLong(offset, timestampNs);
+        mBuffer.putInt(offset + 8, source);
+        mBuffer.putFloat(offset + 12, value);
+        mCount++;
+        mBuffer.putLong(OFFSET_COUNT, mCount);
+    }
+}
@@ -0,0 +1,58 @@
+#
+# Copyright (C) 2019 The LineageOS Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+LOCAL_PATH := $(call my-dir)
+
+# Host JUnit tests. Everything but the settings UI is built against the
+# fakes of the framework classes it uses, found in fakes/; the gesture
+# engine comes from OneplusDozeEngine-host. Run with:
+#
+#   java -cp $ANDROID_HOST_OUT/framework/OneplusCommonTests.jar \
+#       org.junit.runner.JUnitCore <test class>...
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := OneplusCommonTests
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-java-files-under, fakes) \
+    $(call all-java-files-under, ../org.ifaa.android.manager/src) \
+    $(call all-java-files-under, ../sensorhub/src) \
+    ../doze/src/org/lineageos/pocketmode/BootCompletedReceiver.java \
+    ../doze/src/org/lineageos/pocketmode/PocketModeService.java \
+    ../doze/src/org/lineageos/pocketmode/PocketNodeController.java \
+    ../doze/src/org/lineageos/pocketmode/PocketSensor.java \
+    ../doze/src/org/lineageos/pocketmode/ReceiverRegistry.java \
+    ../doze/src/org/lineageos/pocketmode/SysfsWriter.java \
+    ../doze/src/org/lineageos/settings/doze/BootCompletedReceiver.java \
+    ../doze/src/org/lineageos/settings/doze/DozeConfigMonitor.java \
+    ../doze/src/org/lineageos/settings/doze/DozeService.java \
+    ../doze/src/org/lineageos/settings/doze/DozeSettingsRepository.java \
+    ../doze/src/org/lineageos/settings/doze/GestureConfig.java \
+    ../doze/src/org/lineageos/settings/doze/GestureWakeLock.java \
+    ../doze/src/org/lineageos/settings/doze/PickupSensor.java \
+    ../doze/src/org/lineageos/settings/doze/PocketSensor.java \
+    ../doze/src/org/lineageos/settings/doze/PulseDispatcher.java \
+    ../doze/src/org/lineageos/settings/doze/ScreenStateDebouncer.java \
+    ../doze/src/org/lineageos/settings/doze/SystemGestureClock.java \
+    ../doze/src/org/lineageos/settings/doze/Utils.java
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    OneplusDozeEngine-host \
+    junit
+
+include $(BUILD_HOST_JAVA_LIBRARY)
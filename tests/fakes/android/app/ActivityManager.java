@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.os.UserHandle;
+
+/**
+ * Host fake, the user in the foreground is whoever the test says.
+ */
+public class ActivityManager {
+
+    private static volatile int sCurrentUser = UserHandle.USER_SYSTEM;
+
+    public static int getCurrentUser() {
+        return sCurrentUser;
+    }
+
+    /** Not part of the framework API. */
+    public static void setCurrentUser(int userId) {
+        sCurrentUser = userId;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.UserHandle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host fake. Stands in for the settings provider: it stores the values
+ * written through {@link android.provider.Settings}, counts the reads and
+ * notifies the observers of a setting when it is written. Like the real
+ * provider it is shared by every context in the process.
+ */
+public class ContentResolver {
+
+    // Guarded by ContentResolver.class
+    private static final Map<String, String> sSettings = new HashMap<>();
+    private static final List<Observer> sObservers = new ArrayList<>();
+    private static int sSettingReads;
+
+    public void registerContentObserver(Uri uri, boolean notifyForDescendants,
+            ContentObserver observer, int userHandle) {
+        synchronized (ContentResolver.class) {
+            sObservers.add(new Observer(uri, observer, userHandle));
+        }
+    }
+
+    public void registerContentObserver(Uri uri, boolean notifyForDescendants,
+            ContentObserver observer) {
+        registerContentObserver(uri, notifyForDescendants, observer, UserHandle.myUserId());
+    }
+
+    public void unregisterContentObserver(ContentObserver observer) {
+        synchronized (ContentResolver.class) {
+            sObservers.removeIf(o -> o.mObserver == observer);
+        }
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer, int userHandle) {
+        List<ContentObserver> observers = new ArrayList<>();
+        synchronized (ContentResolver.class) {
+            for (Observer o : sObservers) {
+                if (o.mUri.equals(uri) && o.mObserver != observer
+                        && (o.mUserHandle == UserHandle.USER_ALL
+                                || userHandle == UserHandle.USER_ALL
+                                || o.mUserHandle == userHandle)) {
+                    observers.add(o.mObserver);
+                }
+            }
+        }
+        for (ContentObserver o : observers) {
+            o.dispatchChange(false, uri);
+        }
+    }
+
+    /** Reads a setting of the given user. Not part of the framework API. */
+    public String getSetting(Uri uri, int userId) {
+        synchronized (ContentResolver.class) {
+            sSettingReads++;
+            return sSettings.get(userId + ":" + uri);
+        }
+    }
+
+    /**
+     * Writes a setting of the given user and notifies its observers.
+     * Not part of the framework API.
+     */
+    public void putSetting(Uri uri, int userId, String value) {
+        synchronized (ContentResolver.class) {
+            sSettings.put(userId + ":" + uri, value);
+        }
+        notifyChange(uri, null, userId);
+    }
+
+    /** Number of setting reads in the process. Not part of the framework API. */
+    public int getSettingReads() {
+        synchronized (ContentResolver.class) {
+            return sSettingReads;
+        }
+    }
+
+    private static final class Observer {
+        final Uri mUri;
+        final ContentObserver mObserver;
+        final int mUserHandle;
+
+        Observer(Uri uri, ContentObserver observer, int userHandle) {
+            mUri = uri;
+            mObserver = observer;
+            mUserHandle = userHandle;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.app.SharedPreferencesImpl;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Host fake. Serves the system services and resources a test hands it,
+ * keeps track of registered receivers, started and bound services the way
+ * the framework does, and delivers broadcasts on the main looper.
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+    public static final int BIND_AUTO_CREATE = 0x0001;
+
+    private final File mFilesDir;
+    // Resources belong to the package, so all contexts share them
+    private static final Resources sResources = new Resources();
+
+    private final Map<Class<?>, Object> mSystemServices = new HashMap<>();
+    private final ContentResolver mContentResolver = new ContentResolver();
+
+    // Guarded by this
+    private final Map<BroadcastReceiver, IntentFilter> mReceivers = new IdentityHashMap<>();
+    private final Map<ServiceConnection, Intent> mConnections = new IdentityHashMap<>();
+    private final Map<String, SharedPreferences> mSharedPreferences = new HashMap<>();
+    private final Set<ComponentName> mStartedServices = new HashSet<>();
+    private final List<Intent> mStartedActivities = new ArrayList<>();
+    private boolean mBindResult = true;
+    private int mRegisterCalls;
+    private int mUnregisterCalls;
+    private int mBindCalls;
+    private int mUnbindCalls;
+
+    public Context() {
+        this(null);
+    }
+
+    public Context(File filesDir) {
+        mFilesDir = filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Context createDeviceProtectedStorageContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return mFilesDir;
+    }
+
+    public String getPackageName() {
+        return "org.lineageos.test";
+    }
+
+    public int getUserId() {
+        return UserHandle.myUserId();
+    }
+
+    public Resources getResources() {
+        return sResources;
+    }
+
+    public ContentResolver getContentResolver() {
+        return mContentResolver;
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = mSharedPreferences.get(name);
+        if (prefs == null) {
+            prefs = new SharedPreferencesImpl();
+            mSharedPreferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    public <T> T getSystemService(Class<T> serviceClass) {
+        return serviceClass.cast(mSystemServices.get(serviceClass));
+    }
+
+    public synchronized Intent registerReceiver(BroadcastReceiver receiver,
+            IntentFilter filter) {
+        mRegisterCalls++;
+        mReceivers.put(receiver, filter);
+        return null;
+    }
+
+    public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+        mUnregisterCalls++;
+        if (mReceivers.remove(receiver) == null) {
+            throw new IllegalArgumentException("Receiver not registered: " + receiver);
+        }
+    }
+
+    public void sendBroadcast(Intent intent) {
+        Handler handler = new Handler(Looper.getMainLooper());
+        handler.post(() -> {
+            List<BroadcastReceiver> receivers = new ArrayList<>();
+            synchronized (this) {
+                for (Map.Entry<BroadcastReceiver, IntentFilter> entry : mReceivers.entrySet()) {
+                    if (entry.getValue().hasAction(intent.getAction())) {
+                        receivers.add(entry.getKey());
+                    }
+                }
+            }
+            for (BroadcastReceiver receiver : receivers) {
+                // it may have been unregistered by one that ran before it
+                synchronized (this) {
+                    if (!mReceivers.containsKey(receiver)) {
+                        continue;
+                    }
+                }
+                receiver.onReceive(this, intent);
+            }
+        });
+    }
+
+    public void sendBroadcastAsUser(Intent intent, UserHandle user) {
+        sendBroadcast(intent);
+    }
+
+    public ComponentName startService(Intent service) {
+        return startServiceAsUser(service, UserHandle.CURRENT);
+    }
+
+    public synchronized ComponentName startServiceAsUser(Intent service, UserHandle user) {
+        mStartedServices.add(service.getComponent());
+        return service.getComponent();
+    }
+
+    public synchronized boolean stopServiceAsUser(Intent service, UserHandle user) {
+        return mStartedServices.remove(service.getComponent());
+    }
+
+    public synchronized void startActivity(Intent intent) {
+        mStartedActivities.add(intent);
+    }
+
+    public synchronized boolean bindServiceAsUser(Intent service, ServiceConnection conn,
+            int flags, Handler handler, UserHandle user) {
+        mBindCalls++;
+        if (!mBindResult) {
+            return false;
+        }
+        mConnections.put(conn, service);
+        return true;
+    }
+
+    public synchronized void unbindService(ServiceConnection conn) {
+        mUnbindCalls++;
+        if (mConnections.remove(conn) == null) {
+            throw new IllegalArgumentException("Service not registered: " + conn);
+        }
+    }
+
+    /** Registers a system service. Not part of the framework API. */
+    public <T> void addSystemService(Class<T> serviceClass, T service) {
+        mSystemServices.put(serviceClass, service);
+    }
+
+    /** What later bind calls return. Not part of the framework API. */
+    public synchronized void setBindResult(boolean result) {
+        mBindResult = result;
+    }
+
+    /** Not part of the framework API. */
+    public synchronized int getRegisteredReceiverCount() {
+        return mReceivers.size();
+    }
+
+    /** Not part of the framework API. */
+    public synchronized boolean isReceiverRegistered(BroadcastReceiver receiver) {
+        return mReceivers.containsKey(receiver);
+    }
+
+    /** Not part of the framework API. */
+    public synchronized int getRegisterCalls() {
+        return mRegisterCalls;
+    }
+
+    /** Not part of the framework API. */
+    public synchronized int getUnregisterCalls() {
+        return mUnregisterCalls;
+    }
+
+    /** Whether the service was started and not stopped. Not part of the framework API. */
+    public synchronized boolean isServiceStarted(Class<?> cls) {
+        for (ComponentName component : mStartedServices) {
+            if (component.getClassName().equals(cls.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Not part of the framework API. */
+    public synchronized List<Intent> getStartedActivities() {
+        return new ArrayList<>(mStartedActivities);
+    }
+
+    /** Not part of the framework API. */
+    public synchronized boolean isServiceBound(ServiceConnection conn) {
+        return mConnections.containsKey(conn);
+    }
+
+    /** The connection bound to the component, or null. Not part of the framework API. */
+    public synchronized ServiceConnection getBoundConnection(ComponentName component) {
+        for (Map.Entry<ServiceConnection, Intent> entry : mConnections.entrySet()) {
+            if (component.equals(entry.getValue().getComponent())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /** Not part of the framework API. */
+    public synchronized int getBindCalls() {
+        return mBindCalls;
+    }
+
+    /** Not part of the framework API. */
+    public synchronized int getUnbindCalls() {
+        return mUnbindCalls;
+    }
+}
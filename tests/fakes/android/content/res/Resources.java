@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Host fake. Serves the values a test puts in, looking up anything else
+ * fails the way a missing resource does.
+ */
+public class Resources {
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    // Guarded by this
+    private final Map<Integer, Object> mValues = new HashMap<>();
+
+    public int getInteger(int id) {
+        return (Integer) get(id);
+    }
+
+    public boolean getBoolean(int id) {
+        return (Boolean) get(id);
+    }
+
+    public String[] getStringArray(int id) {
+        return ((String[]) get(id)).clone();
+    }
+
+    /** Not part of the framework API. */
+    public void setInteger(int id, int value) {
+        put(id, value);
+    }
+
+    /** Not part of the framework API. */
+    public void setBoolean(int id, boolean value) {
+        put(id, value);
+    }
+
+    /** Not part of the framework API. */
+    public void setStringArray(int id, String... value) {
+        put(id, value.clone());
+    }
+
+    private synchronized void put(int id, Object value) {
+        mValues.put(id, value);
+    }
+
+    private synchronized Object get(int id) {
+        Object value = mValues.get(id);
+        if (value == null) {
+            throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+        }
+        return value;
+    }
+}
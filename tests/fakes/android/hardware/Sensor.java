@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+/**
+ * Host fake, only carries what sensor lookups and registrations look at.
+ */
+public final class Sensor {
+
+    public static final int TYPE_ALL = -1;
+
+    private final String mStringType;
+    private final int mType;
+    private final int mFifoMaxEventCount;
+
+    public Sensor(String stringType, int type, int fifoMaxEventCount) {
+        mStringType = stringType;
+        mType = type;
+        mFifoMaxEventCount = fifoMaxEventCount;
+    }
+
+    public String getName() {
+        return mStringType;
+    }
+
+    public String getStringType() {
+        return mStringType;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getFifoMaxEventCount() {
+        return mFifoMaxEventCount;
+    }
+
+    @Override
+    public String toString() {
+        return "{Sensor type=" + mStringType + "}";
+    }
+}
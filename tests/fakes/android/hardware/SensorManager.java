@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host fake. Keeps track of the registrations made with it and delivers
+ * injected events to them, on the handler they were registered with.
+ */
+public class SensorManager {
+
+    public static abstract class DynamicSensorCallback {
+        public void onDynamicSensorConnected(Sensor sensor) {
+        }
+
+        public void onDynamicSensorDisconnected(Sensor sensor) {
+        }
+    }
+
+    // Guarded by this
+    private final List<Sensor> mSensors = new ArrayList<>();
+    private final List<Sensor> mDynamicSensors = new ArrayList<>();
+    private final Map<DynamicSensorCallback, Handler> mDynamicCallbacks = new HashMap<>();
+    private final Map<Sensor, List<Registration>> mRegistrations = new HashMap<>();
+    private int mRegisterCalls;
+    private int mSensorListQueries;
+    private Runnable mDynamicSensorListHook;
+
+    public synchronized List<Sensor> getSensorList(int type) {
+        mSensorListQueries++;
+        return filter(mSensors, type);
+    }
+
+    public List<Sensor> getDynamicSensorList(int type) {
+        List<Sensor> sensors;
+        Runnable hook;
+        synchronized (this) {
+            sensors = filter(mDynamicSensors, type);
+            hook = mDynamicSensorListHook;
+            mDynamicSensorListHook = null;
+        }
+        if (hook != null) {
+            hook.run();
+        }
+        return sensors;
+    }
+
+    public Sensor getDefaultSensor(int type) {
+        List<Sensor> sensors = getSensorList(type);
+        return sensors.isEmpty() ? null : sensors.get(0);
+    }
+
+    public boolean registerListener(SensorEventListener listener, Sensor sensor,
+            int samplingPeriodUs) {
+        return registerListener(listener, sensor, samplingPeriodUs, 0, null);
+    }
+
+    public boolean registerListener(SensorEventListener listener, Sensor sensor,
+            int samplingPeriodUs, int maxReportLatencyUs, Handler handler) {
+        synchronized (this) {
+            mRegisterCalls++;
+            List<Registration> registrations = mRegistrations.get(sensor);
+            if (registrations == null) {
+                registrations = new ArrayList<>();
+                mRegistrations.put(sensor, registrations);
+            }
+            for (Registration r : registrations) {
+                if (r.mListener == listener) {
+                    return false;
+                }
+            }
+            registrations.add(new Registration(listener, maxReportLatencyUs, handler));
+        }
+        return true;
+    }
+
+    public synchronized void unregisterListener(SensorEventListener listener, Sensor sensor) {
+        List<Registration> registrations = mRegistrations.get(sensor);
+        if (registrations != null) {
+            registrations.removeIf(r -> r.mListener == listener);
+        }
+    }
+
+    public synchronized void unregisterListener(SensorEventListener listener) {
+        for (List<Registration> registrations : mRegistrations.values()) {
+            registrations.removeIf(r -> r.mListener == listener);
+        }
+    }
+
+    public synchronized void registerDynamicSensorCallback(DynamicSensorCallback callback,
+            Handler handler) {
+        mDynamicCallbacks.put(callback, handler);
+    }
+
+    /** Adds a sensor present at boot. Not part of the framework API. */
+    public synchronized void addSensor(Sensor sensor) {
+        mSensors.add(sensor);
+    }
+
+    /** Connects a dynamic sensor. Not part of the framework API. */
+    public void connectDynamicSensor(Sensor sensor) {
+        Map<DynamicSensorCallback, Handler> callbacks;
+        synchronized (this) {
+            mDynamicSensors.add(sensor);
+            callbacks = new HashMap<>(mDynamicCallbacks);
+        }
+        for (Map.Entry<DynamicSensorCallback, Handler> entry : callbacks.entrySet()) {
+            DynamicSensorCallback callback = entry.getKey();
+            run(entry.getValue(), () -> callback.onDynamicSensorConnected(sensor));
+        }
+    }
+
+    /**
+     * Runs the hook once, on the calling thread, after the next
+     * getDynamicSensorList() has read the list and before it returns.
+     * Not part of the framework API.
+     */
+    public synchronized void setDynamicSensorListHook(Runnable hook) {
+        mDynamicSensorListHook = hook;
+    }
+
+    /**
+     * Delivers an event to every listener registered for the sensor.
+     * Not part of the framework API.
+     */
+    public void injectEvent(Sensor sensor, long timestampNs, float... values) {
+        List<Registration> registrations;
+        synchronized (this) {
+            List<Registration> current = mRegistrations.get(sensor);
+            registrations = current != null ? new ArrayList<>(current) : new ArrayList<>();
+        }
+        for (Registration r : registrations) {
+            SensorEvent event = new SensorEvent(values.length);
+            System.arraycopy(values, 0, event.values, 0, values.length);
+            event.sensor = sensor;
+            event.timestamp = timestampNs;
+            run(r.mHandler, () -> r.mListener.onSensorChanged(event));
+        }
+    }
+
+    /**
+     * Delivers an event to every listener registered for its sensor right
+     * on the calling thread, so that callers can reuse one event and
+     * measure what the listeners allocate. Not part of the framework API.
+     */
+    public void dispatchEvent(SensorEvent event) {
+        List<Registration> registrations;
+        synchronized (this) {
+            registrations = mRegistrations.get(event.sensor);
+        }
+        if (registrations == null) {
+            return;
+        }
+        for (int i = 0; i < registrations.size(); i++) {
+            registrations.get(i).mListener.onSensorChanged(event);
+        }
+    }
+
+    /** Listeners registered for the sensor. Not part of the framework API. */
+    public synchronized int getListenerCount(Sensor sensor) {
+        List<Registration> registrations = mRegistrations.get(sensor);
+        return registrations != null ? registrations.size() : 0;
+    }
+
+    /**
+     * Report latency of the first registration for the sensor, -1 if there
+     * is none. Not part of the framework API.
+     */
+    public synchronized int getReportLatencyUs(Sensor sensor) {
+        List<Registration> registrations = mRegistrations.get(sensor);
+        return registrations != null && !registrations.isEmpty()
+                ? registrations.get(0).mMaxReportLatencyUs : -1;
+    }
+
+    /** Number of registerListener() calls. Not part of the framework API. */
+    public synchronized int getRegisterCalls() {
+        return mRegisterCalls;
+    }
+
+    /** Number of getSensorList() calls. Not part of the framework API. */
+    public synchronized int getSensorListQueries() {
+        return mSensorListQueries;
+    }
+
+    private static List<Sensor> filter(List<Sensor> sensors, int type) {
+        List<Sensor> result = new ArrayList<>();
+        for (Sensor sensor : sensors) {
+            if (type == Sensor.TYPE_ALL || sensor.getType() == type) {
+                result.add(sensor);
+            }
+        }
+        return result;
+    }
+
+    private static void run(Handler handler, Runnable runnable) {
+        if (handler != null) {
+            handler.post(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private static final class Registration {
+        final SensorEventListener mListener;
+        final int mMaxReportLatencyUs;
+        final Handler mHandler;
+
+        Registration(SensorEventListener listener, int maxReportLatencyUs, Handler handler) {
+            mListener = listener;
+            mMaxReportLatencyUs = maxReportLatencyUs;
+            mHandler = handler;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host fake. Unlike a real local binder it can be killed, which notifies
+ * the death recipients like the death of a remote process would.
+ */
+public class Binder implements IBinder {
+
+    private IInterface mOwner;
+    private String mDescriptor;
+
+    // Guarded by this
+    private final List<DeathRecipient> mRecipients = new ArrayList<>();
+    private boolean mDead;
+
+    public void attachInterface(IInterface owner, String descriptor) {
+        mOwner = owner;
+        mDescriptor = descriptor;
+    }
+
+    @Override
+    public IInterface queryLocalInterface(String descriptor) {
+        return descriptor.equals(mDescriptor) ? mOwner : null;
+    }
+
+    @Override
+    public synchronized boolean isBinderAlive() {
+        return !mDead;
+    }
+
+    @Override
+    public synchronized void linkToDeath(DeathRecipient recipient, int flags)
+            throws RemoteException {
+        if (mDead) {
+            throw new DeadObjectException();
+        }
+        mRecipients.add(recipient);
+    }
+
+    @Override
+    public synchronized boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+        return mRecipients.remove(recipient);
+    }
+
+    /** Number of linked death recipients. Not part of the framework API. */
+    public synchronized int getDeathRecipientCount() {
+        return mRecipients.size();
+    }
+
+    /** Kills the binder, not part of the framework API. */
+    public void kill() {
+        List<DeathRecipient> recipients;
+        synchronized (this) {
+            mDead = true;
+            recipients = new ArrayList<>(mRecipients);
+            mRecipients.clear();
+        }
+        for (DeathRecipient recipient : recipients) {
+            recipient.binderDied();
+        }
+    }
+}
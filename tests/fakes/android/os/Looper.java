@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host fake. Nothing runs on its own: tests drain the queue on their own
+ * thread with {@link #idle()} and {@link #idleFor(long)}, which makes
+ * everything posted to a {@link Handler} deterministic.
+ */
+public final class Looper {
+
+    private static final Looper sMainLooper = new Looper();
+
+    // Guarded by this
+    private final List<Task> mQueue = new ArrayList<>();
+    private long mSequence;
+
+    Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    public void quit() {
+    }
+
+    public void quitSafely() {
+    }
+
+    /**
+     * Runs every task that is due, including the ones they post.
+     * Not part of the framework API.
+     *
+     * @return the number of tasks run
+     */
+    public int idle() {
+        int count = 0;
+        Task task;
+        while ((task = poll(SystemClock.uptimeMillis())) != null) {
+            task.mRunnable.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the clock forward by the given time, running tasks when they
+     * are due. Not part of the framework API.
+     *
+     * @return the number of tasks run
+     */
+    public int idleFor(long deltaMs) {
+        long end = SystemClock.uptimeMillis() + deltaMs;
+        int count = idle();
+        Task task;
+        while ((task = poll(end)) != null) {
+            if (task.mWhenMs > SystemClock.uptimeMillis()) {
+                SystemClock.setUptimeMillis(task.mWhenMs);
+            }
+            task.mRunnable.run();
+            count++;
+        }
+        SystemClock.setUptimeMillis(end);
+        return count;
+    }
+
+    /** Number of tasks waiting, due or not. Not part of the framework API. */
+    public synchronized int getQueueSize() {
+        return mQueue.size();
+    }
+
+    synchronized void enqueue(Handler handler, Runnable runnable, long whenMs) {
+        mQueue.add(new Task(handler, runnable, whenMs, mSequence++));
+    }
+
+    synchronized void remove(Handler handler, Runnable runnable) {
+        mQueue.removeIf(task -> task.mHandler == handler
+                && (runnable == null || task.mRunnable == runnable));
+    }
+
+    synchronized boolean contains(Handler handler, Runnable runnable) {
+        for (Task task : mQueue) {
+            if (task.mHandler == handler && task.mRunnable == runnable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Task poll(long limitMs) {
+        Task next = null;
+        for (Task task : mQueue) {
+            if (task.mWhenMs <= limitMs && (next == null || task.mWhenMs < next.mWhenMs
+                    || (task.mWhenMs == next.mWhenMs && task.mSequence < next.mSequence))) {
+                next = task;
+            }
+        }
+        if (next != null) {
+            mQueue.remove(next);
+        }
+        return next;
+    }
+
+    private static final class Task {
+        final Handler mHandler;
+        final Runnable mRunnable;
+        final long mWhenMs;
+        final long mSequence;
+
+        Task(Handler handler, Runnable runnable, long whenMs, long sequence) {
+            mHandler = handler;
+            mRunnable = runnable;
+            mWhenMs = whenMs;
+            mSequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host fake. Wakelocks only track whether they are held, a timeout runs
+ * out on the fake {@link SystemClock}.
+ */
+public final class PowerManager {
+
+    public static final int PARTIAL_WAKE_LOCK = 0x00000001;
+
+    // Guarded by this
+    private final List<WakeLock> mWakeLocks = new ArrayList<>();
+
+    public synchronized WakeLock newWakeLock(int levelAndFlags, String tag) {
+        WakeLock wakeLock = new WakeLock(tag);
+        mWakeLocks.add(wakeLock);
+        return wakeLock;
+    }
+
+    /** The last wakelock created with the tag. Not part of the framework API. */
+    public synchronized WakeLock getWakeLock(String tag) {
+        for (int i = mWakeLocks.size() - 1; i >= 0; i--) {
+            if (mWakeLocks.get(i).getTag().equals(tag)) {
+                return mWakeLocks.get(i);
+            }
+        }
+        return null;
+    }
+
+    public final class WakeLock {
+
+        private final String mTag;
+
+        // Guarded by this
+        private boolean mRefCounted = true;
+        private int mCount;
+        private long mReleaseAtMs;
+        private int mAcquireCalls;
+        private long mLastTimeoutMs;
+
+        WakeLock(String tag) {
+            mTag = tag;
+        }
+
+        public synchronized void setReferenceCounted(boolean value) {
+            mRefCounted = value;
+        }
+
+        public synchronized void acquire() {
+            acquireLocked(0);
+        }
+
+        public synchronized void acquire(long timeoutMs) {
+            acquireLocked(timeoutMs);
+        }
+
+        private void acquireLocked(long timeoutMs) {
+            mAcquireCalls++;
+            mLastTimeoutMs = timeoutMs;
+            mCount = mRefCounted ? mCount + 1 : 1;
+            mReleaseAtMs = timeoutMs > 0 ? SystemClock.elapsedRealtime() + timeoutMs : 0;
+        }
+
+        public synchronized void release() {
+            if (mRefCounted && mCount == 0) {
+                throw new RuntimeException("WakeLock under-locked " + mTag);
+            }
+            mCount = mRefCounted ? mCount - 1 : 0;
+        }
+
+        public synchronized boolean isHeld() {
+            return mCount > 0 && (mReleaseAtMs == 0
+                    || SystemClock.elapsedRealtime() < mReleaseAtMs);
+        }
+
+        public String getTag() {
+            return mTag;
+        }
+
+        /** Number of acquire calls. Not part of the framework API. */
+        public synchronized int getAcquireCalls() {
+            return mAcquireCalls;
+        }
+
+        /** Timeout of the last acquire, 0 for none. Not part of the framework API. */
+        public synchronized long getLastTimeoutMs() {
+            return mLastTimeoutMs;
+        }
+    }
+}
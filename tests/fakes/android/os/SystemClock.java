@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host fake. Time only moves when a test moves it, directly or through
+ * {@link Looper#idleFor(long)}.
+ */
+public final class SystemClock {
+
+    private static volatile long sNowMs = 1000000;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return sNowMs;
+    }
+
+    public static long elapsedRealtime() {
+        return sNowMs;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return sNowMs * 1000000;
+    }
+
+    /** Not part of the framework API. */
+    public static void setUptimeMillis(long nowMs) {
+        sNowMs = nowMs;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Host fake backed by an in-memory map, empty until a test sets a property.
+ */
+public final class SystemProperties {
+
+    private static final Map<String, String> sProperties = new HashMap<>();
+
+    private SystemProperties() {
+    }
+
+    public static synchronized String get(String key, String def) {
+        String value = sProperties.get(key);
+        return value != null ? value : def;
+    }
+
+    public static int getInt(String key, int def) {
+        String value = get(key, null);
+        try {
+            return value != null ? Integer.decode(value) : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String value = get(key, null);
+        if (value == null) {
+            return def;
+        }
+        if ("1".equals(value) || "true".equals(value) || "y".equals(value)) {
+            return true;
+        }
+        if ("0".equals(value) || "false".equals(value) || "n".equals(value)) {
+            return false;
+        }
+        return def;
+    }
+
+    public static synchronized void set(String key, String value) {
+        if (value == null) {
+            sProperties.remove(key);
+        } else {
+            sProperties.put(key, value);
+        }
+    }
+}
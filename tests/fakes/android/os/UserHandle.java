@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+public final class UserHandle {
+
+    public static final int USER_ALL = -1;
+    public static final int USER_CURRENT = -2;
+    public static final int USER_NULL = -10000;
+    public static final int USER_SYSTEM = 0;
+
+    public static final UserHandle ALL = new UserHandle(USER_ALL);
+    public static final UserHandle CURRENT = new UserHandle(USER_CURRENT);
+    public static final UserHandle SYSTEM = new UserHandle(USER_SYSTEM);
+
+    private final int mHandle;
+
+    public UserHandle(int h) {
+        mHandle = h;
+    }
+
+    public static int myUserId() {
+        return USER_SYSTEM;
+    }
+
+    public static UserHandle of(int userId) {
+        return userId == USER_SYSTEM ? SYSTEM : new UserHandle(userId);
+    }
+
+    public int getIdentifier() {
+        return mHandle;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof UserHandle && ((UserHandle) obj).mHandle == mHandle;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHandle;
+    }
+
+    @Override
+    public String toString() {
+        return "UserHandle{" + mHandle + "}";
+    }
+}
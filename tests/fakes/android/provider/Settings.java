@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.UserHandle;
+
+/**
+ * Host fake, the values live in the fake {@link ContentResolver}.
+ */
+public final class Settings {
+
+    private Settings() {
+    }
+
+    public static final class Secure {
+
+        public static final Uri CONTENT_URI = Uri.parse("content://settings/secure");
+
+        public static final String DOZE_ENABLED = "doze_enabled";
+        public static final String DOZE_ALWAYS_ON = "doze_always_on";
+
+        private Secure() {
+        }
+
+        public static Uri getUriFor(String name) {
+            return Uri.withAppendedPath(CONTENT_URI, name);
+        }
+
+        public static String getString(ContentResolver resolver, String name) {
+            return getStringForUser(resolver, name, UserHandle.myUserId());
+        }
+
+        public static String getStringForUser(ContentResolver resolver, String name,
+                int userHandle) {
+            return resolver.getSetting(getUriFor(name), resolveUser(userHandle));
+        }
+
+        public static boolean putString(ContentResolver resolver, String name, String value) {
+            return putStringForUser(resolver, name, value, UserHandle.myUserId());
+        }
+
+        public static boolean putStringForUser(ContentResolver resolver, String name,
+                String value, int userHandle) {
+            resolver.putSetting(getUriFor(name), resolveUser(userHandle), value);
+            return true;
+        }
+
+        public static int getInt(ContentResolver resolver, String name, int def) {
+            return getIntForUser(resolver, name, def, UserHandle.myUserId());
+        }
+
+        public static int getIntForUser(ContentResolver resolver, String name, int def,
+                int userHandle) {
+            String value = getStringForUser(resolver, name, userHandle);
+            try {
+                return value != null ? Integer.parseInt(value) : def;
+            } catch (NumberFormatException e) {
+                return def;
+            }
+        }
+
+        public static boolean putInt(ContentResolver resolver, String name, int value) {
+            return putIntForUser(resolver, name, value, UserHandle.myUserId());
+        }
+
+        public static boolean putIntForUser(ContentResolver resolver, String name, int value,
+                int userHandle) {
+            return putStringForUser(resolver, name, Integer.toString(value), userHandle);
+        }
+
+        private static int resolveUser(int userHandle) {
+            return userHandle == UserHandle.USER_CURRENT
+                    ? ActivityManager.getCurrentUser() : userHandle;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Host fake backed by a sorted map, with keys in ascending order like the
+ * real one.
+ */
+public class SparseArray<E> {
+
+    private final TreeMap<Integer, E> mMap = new TreeMap<>();
+
+    public E get(int key) {
+        return mMap.get(key);
+    }
+
+    public void put(int key, E value) {
+        mMap.put(key, value);
+    }
+
+    public void remove(int key) {
+        mMap.remove(key);
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public int keyAt(int index) {
+        return new ArrayList<>(mMap.keySet()).get(index);
+    }
+
+    public E valueAt(int index) {
+        List<E> values = new ArrayList<>(mMap.values());
+        return values.get(index);
+    }
+}
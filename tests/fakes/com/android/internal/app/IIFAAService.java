@@ -0,0 +1,36 @@
+package com.android.internal.app;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
+
+/**
+ * Host fake of the interface generated from IIFAAService.aidl. Only local
+ * implementations, extending {@link Stub}, are supported.
+ */
+public interface IIFAAService extends IInterface {
+
+    byte[] processCmdV2(byte[] dataIn) throws RemoteException;
+
+    abstract class Stub extends Binder implements IIFAAService {
+        private static final String DESCRIPTOR = "com.android.internal.app.IIFAAService";
+
+        public Stub() {
+            attachInterface(this, DESCRIPTOR);
+        }
+
+        public static IIFAAService asInterface(IBinder obj) {
+            if (obj == null) {
+                return null;
+            }
+            IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+            return iin instanceof IIFAAService ? (IIFAAService) iin : null;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return this;
+        }
+    }
+}
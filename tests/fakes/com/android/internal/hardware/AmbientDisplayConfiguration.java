@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.hardware;
+
+import android.content.Context;
+
+/**
+ * Host fake, whether AOD is available is up to the test.
+ */
+public class AmbientDisplayConfiguration {
+
+    private static volatile boolean sAlwaysOnAvailable;
+
+    public AmbientDisplayConfiguration(Context context) {
+    }
+
+    public boolean alwaysOnAvailable() {
+        return sAlwaysOnAvailable;
+    }
+
+    /** Not part of the framework API. */
+    public static void setAlwaysOnAvailable(boolean available) {
+        sAlwaysOnAvailable = available;
+    }
+}
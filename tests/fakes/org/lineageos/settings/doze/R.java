@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+/**
+ * Host fake of the resource ids aapt generates for the OneplusDoze
+ * package. Tests set the values they need on the fake Resources.
+ */
+public final class R {
+
+    public static final class array {
+        public static final int config_pocketModeNodes = 0x7f010000;
+    }
+
+    public static final class integer {
+        public static final int config_dozeSensorMaxReportLatencyMs = 0x7f020000;
+        public static final int config_dozeScreenStateSettleMs = 0x7f020001;
+    }
+}
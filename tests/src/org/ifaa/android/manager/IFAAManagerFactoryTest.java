@@ -0,0 +1,353 @@
+package org.ifaa.android.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+
+import com.android.internal.app.IIFAAService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command queueing, timeouts and capability queries of the IFAA manager,
+ * against a fake IFAAService.
+ */
+public class IFAAManagerFactoryTest {
+
+    private static final long WAIT_SECONDS = 5;
+
+    private static final byte[] COMMAND = { 1, 2, 3 };
+
+    private static class FakeIFAAService extends IIFAAService.Stub {
+        @Override
+        public byte[] processCmdV2(byte[] dataIn) throws RemoteException {
+            return dataIn;
+        }
+    }
+
+    /** Holds every command until it is released. */
+    private static final class BlockingIFAAService extends FakeIFAAService {
+        final CountDownLatch mEntered;
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        BlockingIFAAService(int expectedCalls) {
+            mEntered = new CountDownLatch(expectedCalls);
+        }
+
+        @Override
+        public byte[] processCmdV2(byte[] dataIn) throws RemoteException {
+            mCalls.incrementAndGet();
+            mEntered.countDown();
+            try {
+                mRelease.await(WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return dataIn;
+        }
+    }
+
+    private Context mContext;
+    private Looper mLooper;
+    private IFAAManagerFactory mManager;
+
+    @Before
+    public void setUp() {
+        createManager(IFAAManagerFactory.PROCESS_CMD_TIMEOUT_MS);
+    }
+
+    private void createManager(long processCmdTimeoutMs) {
+        mContext = new Context();
+        mLooper = new HandlerThread("IFAAManagerFactoryTest").getLooper();
+        mManager = new IFAAManagerFactory(mContext, new Handler(mLooper), processCmdTimeoutMs);
+    }
+
+    private <T extends FakeIFAAService> T connect(T service) {
+        ServiceConnection connection =
+                mContext.getBoundConnection(IFAAManagerFactory.IFAA_SERVICE_COMPONENT);
+        connection.onServiceConnected(IFAAManagerFactory.IFAA_SERVICE_COMPONENT, service);
+        return service;
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        mManager.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void bindsEagerly() {
+        assertEquals(1, mContext.getBindCalls());
+        assertTrue(mContext.isServiceBound(
+                mContext.getBoundConnection(IFAAManagerFactory.IFAA_SERVICE_COMPONENT)));
+    }
+
+    @Test
+    public void commandsWaitForTheService() throws Exception {
+        CompletableFuture<byte[]> first = mManager.processCmdV2Async(mContext, COMMAND);
+        CompletableFuture<byte[]> second = mManager.processCmdV2Async(mContext, COMMAND);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        // already bound
+        assertEquals(1, mContext.getBindCalls());
+
+        connect(new FakeIFAAService());
+        assertArrayEquals(COMMAND, first.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(COMMAND, second.get(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // the bind timeouts find nothing left to fail
+        mLooper.idleFor(3000);
+        assertTrue(dump(), dump().contains("circuitOpen=false"));
+    }
+
+    @Test
+    public void blockedCallerWakesUpOnConnect() throws Exception {
+        byte[][] result = new byte[1][];
+        Thread caller = new Thread(() -> result[0] = mManager.processCmdV2(mContext, COMMAND));
+        caller.start();
+        while (!dump().contains("bind waits=1")) {
+            Thread.sleep(1);
+        }
+
+        // the bind timeout never runs, only the connection can wake it up
+        connect(new FakeIFAAService());
+        caller.join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+        assertFalse(caller.isAlive());
+        assertArrayEquals(COMMAND, result[0]);
+        assertTrue(dump(), dump().contains("bind wait: count=1"));
+    }
+
+    @Test
+    public void queueIsDrainedOnConnect() throws Exception {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (byte i = 0; i < 10; i++) {
+            futures.add(mManager.processCmdV2Async(mContext, new byte[] { i }));
+        }
+
+        connect(new FakeIFAAService());
+        for (byte i = 0; i < 10; i++) {
+            assertArrayEquals(new byte[] { i },
+                    futures.get(i).get(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertTrue(dump(), dump().contains("bind waits=10"));
+        assertTrue(dump(), dump().contains("bind wait: count=10"));
+    }
+
+    @Test
+    public void connectedServiceRunsCommands() {
+        connect(new FakeIFAAService());
+        assertArrayEquals(COMMAND, mManager.processCmdV2(mContext, COMMAND));
+    }
+
+    @Test
+    public void bindTimeoutOpensTheCircuit() throws Exception {
+        CompletableFuture<byte[]> future = mManager.processCmdV2Async(mContext, COMMAND);
+        mLooper.idleFor(2999);
+        assertFalse(future.isDone());
+        mLooper.idleFor(1);
+        try {
+            future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // fails fast while IFAAService is down
+        future = mManager.processCmdV2Async(mContext, COMMAND);
+        assertTrue(future.isCompletedExceptionally());
+        assertNull(mManager.processCmdV2(mContext, COMMAND));
+        assertTrue(dump(), dump().contains("circuitOpen=true"));
+        assertTrue(dump(), dump().contains("fast failures: 2"));
+    }
+
+    @Test
+    public void commandsArePipelined() throws Exception {
+        BlockingIFAAService service = connect(new BlockingIFAAService(4));
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(mManager.processCmdV2Async(mContext, COMMAND));
+        }
+
+        // four commands are in the service at once, the fifth waits for a worker
+        assertTrue(service.mEntered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(4, service.mCalls.get());
+        for (CompletableFuture<byte[]> future : futures) {
+            assertFalse(future.isDone());
+        }
+
+        service.mRelease.countDown();
+        for (CompletableFuture<byte[]> future : futures) {
+            assertArrayEquals(COMMAND, future.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertEquals(5, service.mCalls.get());
+    }
+
+    @Test
+    public void fullQueueRejectsCommands() throws Exception {
+        int accepted = IFAAManagerFactory.MAX_COMMANDS_IN_FLIGHT
+                + IFAAManagerFactory.MAX_COMMANDS_QUEUED;
+        BlockingIFAAService service = connect(
+                new BlockingIFAAService(IFAAManagerFactory.MAX_COMMANDS_IN_FLIGHT));
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < accepted; i++) {
+            futures.add(mManager.processCmdV2Async(mContext, COMMAND));
+        }
+        assertTrue(service.mEntered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        CompletableFuture<byte[]> rejected = mManager.processCmdV2Async(mContext, COMMAND);
+        try {
+            rejected.getNow(null);
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(dump(), dump().contains("rejections=1"));
+
+        service.mRelease.countDown();
+        for (CompletableFuture<byte[]> future : futures) {
+            assertArrayEquals(COMMAND, future.get(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertEquals(accepted, service.mCalls.get());
+    }
+
+    @Test
+    public void hungServiceTimesOut() {
+        createManager(100);
+        BlockingIFAAService service = connect(new BlockingIFAAService(1));
+
+        assertNull(mManager.processCmdV2(mContext, COMMAND));
+        assertTrue(dump(), dump().contains("timeouts=1"));
+        service.mRelease.countDown();
+    }
+
+    @Test
+    public void timedOutCommandIsNotSent() throws Exception {
+        createManager(100);
+        BlockingIFAAService service = connect(
+                new BlockingIFAAService(IFAAManagerFactory.MAX_COMMANDS_IN_FLIGHT));
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < IFAAManagerFactory.MAX_COMMANDS_IN_FLIGHT; i++) {
+            futures.add(mManager.processCmdV2Async(mContext, COMMAND));
+        }
+        assertTrue(service.mEntered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // waits for a worker until it times out
+        assertNull(mManager.processCmdV2(mContext, COMMAND));
+
+        service.mRelease.countDown();
+        for (CompletableFuture<byte[]> future : futures) {
+            future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        Thread.sleep(50);
+        assertEquals(IFAAManagerFactory.MAX_COMMANDS_IN_FLIGHT, service.mCalls.get());
+    }
+
+    @Test
+    public void serviceDeathCancelsCommandsInFlight() throws Exception {
+        BlockingIFAAService service = connect(new BlockingIFAAService(1));
+        CompletableFuture<byte[]> future = mManager.processCmdV2Async(mContext, COMMAND);
+        assertTrue(service.mEntered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        service.kill();
+        assertTrue(future.isCancelled());
+        service.mRelease.countDown();
+    }
+
+    @Test
+    public void disconnectCancelsCommandsInFlight() throws Exception {
+        BlockingIFAAService service = connect(new BlockingIFAAService(1));
+        CompletableFuture<byte[]> future = mManager.processCmdV2Async(mContext, COMMAND);
+        assertTrue(service.mEntered.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        mContext.getBoundConnection(IFAAManagerFactory.IFAA_SERVICE_COMPONENT)
+                .onServiceDisconnected(IFAAManagerFactory.IFAA_SERVICE_COMPONENT);
+        assertTrue(future.isCancelled());
+        service.mRelease.countDown();
+    }
+
+    @Test
+    public void capabilitiesDefaultToTheOriginalValues() {
+        assertEquals(3, mManager.getVersion());
+        assertEquals(0x01, mManager.getSupportBIOTypes(mContext));
+        assertEquals("ONEPLUS-A3000", mManager.getDeviceModel());
+        assertTrue(mManager.getExtInfo(0, IFAAManagerV3.KEY_GET_SENSOR_LOCATION)
+                .contains("fullView"));
+        assertEquals("", mManager.getExtInfo(0, IFAAManagerV3.KEY_FINGERPRINT_FULLVIEW));
+    }
+
+    @Test
+    public void capabilityQueriesDoNotAllocate() {
+        assumeTrue("JVM can't count allocations", allocatedBytes() >= 0);
+        int queries = 1000000;
+        runQueries(queries / 10);
+
+        long allocated = allocatedBytes();
+        int checksum = runQueries(queries);
+        allocated = allocatedBytes() - allocated;
+
+        assertTrue(checksum > 0);
+        // Leaves room for the allocations of the measurement itself
+        assertTrue(allocated + " bytes", (double) allocated / queries < 0.01);
+    }
+
+    private int runQueries(int queries) {
+        int checksum = 0;
+        for (int i = 0; i < queries; i++) {
+            checksum += mManager.getSupportBIOTypes(mContext);
+            checksum += mManager.getDeviceModel().length();
+            checksum += mManager.getExtInfo(0, IFAAManagerV3.KEY_GET_SENSOR_LOCATION).length();
+        }
+        return checksum;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    @Test
+    public void startBIOManagerOpensSecuritySettings() {
+        assertEquals(0, mManager.startBIOManager(mContext, 0));
+        List<Intent> activities = mContext.getStartedActivities();
+        assertEquals(1, activities.size());
+        assertEquals(new ComponentName("com.android.settings",
+                "com.android.settings.Settings$SecuritySettingsActivity"),
+                activities.get(0).getComponent());
+        assertTrue((activities.get(0).getFlags() & Intent.FLAG_ACTIVITY_NEW_TASK) != 0);
+    }
+}
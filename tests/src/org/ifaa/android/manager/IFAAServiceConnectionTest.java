@@ -0,0 +1,199 @@
+package org.ifaa.android.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+
+import com.android.internal.app.IIFAAService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Binding, circuit breaker and rebind backoff of the IFAAService
+ * connection, against a fake service.
+ */
+public class IFAAServiceConnectionTest {
+
+    private static final ComponentName COMPONENT =
+            IFAAManagerFactory.IFAA_SERVICE_COMPONENT;
+
+    private static final class FakeIFAAService extends IIFAAService.Stub {
+        @Override
+        public byte[] processCmdV2(byte[] dataIn) throws RemoteException {
+            return dataIn;
+        }
+    }
+
+    private Context mContext;
+    private Looper mLooper;
+    private IFAAServiceConnection mConnection;
+    private int mConnectedCount;
+    private int mLostCount;
+
+    @Before
+    public void setUp() {
+        mContext = new Context();
+        mLooper = new HandlerThread("IFAAServiceConnectionTest").getLooper();
+        mConnection = new IFAAServiceConnection(COMPONENT, new Handler(mLooper),
+                new IFAAServiceConnection.Callback() {
+                    @Override
+                    public void onServiceConnected(IIFAAService service) {
+                        mConnectedCount++;
+                    }
+
+                    @Override
+                    public void onServiceLost() {
+                        mLostCount++;
+                    }
+                });
+    }
+
+    private FakeIFAAService connect() {
+        FakeIFAAService service = new FakeIFAAService();
+        mConnection.onServiceConnected(COMPONENT, service);
+        return service;
+    }
+
+    @Test
+    public void connectedServiceIsHandedOut() throws RemoteException {
+        mConnection.bind(mContext);
+        assertEquals(1, mContext.getBindCalls());
+        assertNull(mConnection.getService());
+
+        FakeIFAAService service = connect();
+        assertSame(service, mConnection.getService());
+        assertFalse(mConnection.isCircuitOpen());
+        assertEquals(1, mConnectedCount);
+        assertEquals(1, service.getDeathRecipientCount());
+
+        byte[] command = { 1, 2, 3 };
+        assertArrayEquals(command, mConnection.getService().processCmdV2(command));
+
+        // already bound
+        mConnection.bind(mContext);
+        assertEquals(1, mContext.getBindCalls());
+    }
+
+    @Test
+    public void nullBindingRebindsWithBackoff() {
+        mConnection.bind(mContext);
+        mConnection.onNullBinding(COMPONENT);
+        assertTrue(mConnection.isCircuitOpen());
+        assertFalse(mContext.isServiceBound(mConnection));
+
+        mLooper.idleFor(999);
+        assertEquals(1, mContext.getBindCalls());
+        mLooper.idleFor(1);
+        assertEquals(2, mContext.getBindCalls());
+        assertTrue(mContext.isServiceBound(mConnection));
+
+        // refused again, the next attempt waits longer
+        mConnection.onNullBinding(COMPONENT);
+        assertFalse(mContext.isServiceBound(mConnection));
+        mLooper.idleFor(3999);
+        assertEquals(2, mContext.getBindCalls());
+        mLooper.idleFor(1);
+        assertEquals(3, mContext.getBindCalls());
+
+        connect();
+        assertFalse(mConnection.isCircuitOpen());
+        assertEquals(0, mLooper.getQueueSize());
+    }
+
+    @Test
+    public void binderDeathRebinds() {
+        mConnection.bind(mContext);
+        FakeIFAAService service = connect();
+
+        service.kill();
+        assertNull(mConnection.getService());
+        assertTrue(mConnection.isCircuitOpen());
+        assertEquals(1, mLostCount);
+
+        mLooper.idleFor(1000);
+        assertEquals(1, mContext.getUnbindCalls());
+        assertEquals(2, mContext.getBindCalls());
+        assertTrue(mContext.isServiceBound(mConnection));
+
+        connect();
+        assertFalse(mConnection.isCircuitOpen());
+        assertEquals(2, mConnectedCount);
+    }
+
+    @Test
+    public void disconnectWaitsForTheSystemToReconnect() {
+        mConnection.bind(mContext);
+        connect();
+
+        mConnection.onServiceDisconnected(COMPONENT);
+        assertNull(mConnection.getService());
+        assertTrue(mConnection.isCircuitOpen());
+        assertEquals(1, mLostCount);
+
+        mLooper.idleFor(64000);
+        assertEquals(0, mContext.getUnbindCalls());
+        assertEquals(1, mContext.getBindCalls());
+        assertTrue(mContext.isServiceBound(mConnection));
+
+        // delivered again on the same binding
+        connect();
+        assertFalse(mConnection.isCircuitOpen());
+        assertEquals(2, mConnectedCount);
+    }
+
+    @Test
+    public void disconnectAfterDeathIsIgnored() {
+        mConnection.bind(mContext);
+        connect().kill();
+        mConnection.onServiceDisconnected(COMPONENT);
+        assertEquals(1, mLostCount);
+    }
+
+    @Test
+    public void failedBindRetries() {
+        mContext.setBindResult(false);
+        mConnection.bind(mContext);
+        assertTrue(mConnection.isCircuitOpen());
+
+        mLooper.idleFor(1000);
+        assertEquals(2, mContext.getBindCalls());
+
+        mContext.setBindResult(true);
+        mLooper.idleFor(2000);
+        assertEquals(3, mContext.getBindCalls());
+        assertTrue(mContext.isServiceBound(mConnection));
+    }
+
+    @Test
+    public void bindTimeoutOpensCircuitAndRebinds() {
+        mConnection.bind(mContext);
+        mConnection.onBindTimeout();
+        assertTrue(mConnection.isCircuitOpen());
+
+        mLooper.idleFor(1000);
+        assertEquals(1, mContext.getUnbindCalls());
+        assertEquals(2, mContext.getBindCalls());
+    }
+
+    @Test
+    public void deadBindingIsReplacedRightAway() {
+        mConnection.bind(mContext);
+        connect();
+        mConnection.onBindingDied(COMPONENT);
+        assertEquals(1, mLostCount);
+
+        mLooper.idle();
+        assertEquals(2, mContext.getBindCalls());
+    }
+}
@@ -0,0 +1,126 @@
+package org.ifaa.android.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Percentiles of the latency histograms, recording from several threads,
+ * and the IFAA counters.
+ */
+public class IFAAStatsTest {
+
+    private static void assertWithin(long expected, long actual) {
+        // Buckets report their lower bound, at most 12.5% below the value
+        assertTrue(actual + " for " + expected,
+                actual <= expected && actual >= expected - expected / 8);
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanUs());
+        assertEquals(0, histogram.getPercentileUs(99));
+        assertEquals(0, histogram.getMaxUs());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(3, histogram.getPercentileUs(50));
+        assertEquals(7, histogram.getPercentileUs(100));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50000, histogram.getMeanUs());
+        assertEquals(100000, histogram.getMaxUs());
+        assertWithin(50000, histogram.getPercentileUs(50));
+        assertWithin(90000, histogram.getPercentileUs(90));
+        assertWithin(99000, histogram.getPercentileUs(99));
+    }
+
+    @Test
+    public void outliersAreKept() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1L << 50);
+        histogram.record(-1);
+        assertEquals(1L << 50, histogram.getMaxUs());
+        assertWithin(100, histogram.getPercentileUs(90));
+        assertTrue(histogram.getPercentileUs(100) >= 1L << 40);
+        assertEquals(0, histogram.getPercentileUs(0.5));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(base + i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(3999, histogram.getMaxUs());
+        assertWithin(2000, histogram.getPercentileUs(50));
+    }
+
+    @Test
+    public void periodicSummaryOnlyAfterNewCommands() {
+        IFAAStats stats = new IFAAStats();
+        assertNull(stats.periodicSummary());
+
+        stats.processCmdV2.record(1000);
+        stats.timeouts.incrementAndGet();
+        String summary = stats.periodicSummary();
+        assertNotNull(summary);
+        assertTrue(summary, summary.startsWith("processCmdV2 n=1 "));
+        assertTrue(summary, summary.contains("timeouts=1"));
+        assertNull(stats.periodicSummary());
+
+        stats.processCmdV2.record(2000);
+        assertNotNull(stats.periodicSummary());
+    }
+
+    @Test
+    public void dumpShowsFailureRate() {
+        IFAAStats stats = new IFAAStats();
+        for (int i = 0; i < 4; i++) {
+            stats.remoteCall.record(100);
+        }
+        stats.callFailures.incrementAndGet();
+        stats.remoteExceptions.incrementAndGet();
+        stats.nullServiceHits.incrementAndGet();
+
+        StringWriter out = new StringWriter();
+        stats.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("remote call failures: 1/4 (25%)"));
+        assertTrue(dump, dump.contains("remote exceptions=1 null service hits=1"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lineageos.sensorhub.TestDevice;
+import org.lineageos.settings.doze.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Pocket events delivered through the hub, up to the pocket-lock nodes.
+ */
+public class PocketSensorTest {
+
+    private static final float NEAR = 1;
+    private static final float FAR = 0;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final SensorManager mSensorManager = TestDevice.getSensorManager();
+
+    private File mNode;
+    private PocketSensor mPocketSensor;
+    private long mTimestampNs;
+
+    @Before
+    public void setUp() throws IOException {
+        mNode = mFolder.newFile("pocket_node");
+        Context context = new Context();
+        context.getResources().setInteger(R.integer.config_dozeSensorMaxReportLatencyMs, 200);
+        context.getResources().setStringArray(R.array.config_pocketModeNodes,
+                mNode.getPath(), new File(mFolder.getRoot(), "missing_node").getPath());
+        mPocketSensor = new PocketSensor(context);
+        mPocketSensor.enable();
+        TestDevice.idleHub();
+    }
+
+    @After
+    public void tearDown() {
+        mPocketSensor.disable();
+        TestDevice.idleHub();
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.POCKET));
+    }
+
+    private void event(float value) {
+        mTimestampNs += 100L * 1000 * 1000;
+        TestDevice.injectEvent(TestDevice.POCKET, mTimestampNs, value);
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(mNode.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        mPocketSensor.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void registersWithConfiguredLatency() {
+        assertEquals(1, mSensorManager.getListenerCount(TestDevice.POCKET));
+        assertEquals(200 * 1000, mSensorManager.getReportLatencyUs(TestDevice.POCKET));
+    }
+
+    @Test
+    public void nearAndFarDriveTheNode() throws IOException {
+
+        event(NEAR);
+        assertEquals("1\n", read());
+        event(FAR);
+        assertEquals("0\n", read());
+        assertTrue(dump(), dump().contains("writes=2 skipped=0 errors=0"));
+    }
+
+    @Test
+    public void disableLeavesThePocket() throws IOException {
+        event(NEAR);
+        assertEquals("1\n", read());
+
+        mPocketSensor.disable();
+        TestDevice.idleHub();
+        assertEquals("0\n", read());
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.POCKET));
+    }
+
+    @Test
+    public void eventsBeforeTheWriteAreCoalesced() throws IOException {
+        // All three are queued on the hub thread before the node is written
+        mSensorManager.injectEvent(TestDevice.POCKET, 1, NEAR);
+        mSensorManager.injectEvent(TestDevice.POCKET, 2, FAR);
+        mSensorManager.injectEvent(TestDevice.POCKET, 3, NEAR);
+        TestDevice.idleHub();
+
+        assertEquals("1\n", read());
+        assertTrue(dump(), dump().contains("writes=1 skipped=0 errors=0"));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+
+/**
+ * Registration bookkeeping under the enable/disable broadcasts that drive
+ * PocketModeService, against a fake Context that rejects unbalanced calls
+ * like the framework does.
+ */
+public class ReceiverRegistryTest {
+
+    private static final String ACTION_UPDATE = "org.lineageos.pocketmode.UPDATE";
+
+    private PocketModeService mService;
+
+    @Before
+    public void setUp() {
+        mService = new PocketModeService();
+        mService.onCreate();
+        assertEquals(1, mService.getRegisteredReceiverCount());
+    }
+
+    @After
+    public void tearDown() {
+        mService.onDestroy();
+        assertEquals(0, mService.getRegisteredReceiverCount());
+    }
+
+    private void sendUpdate(boolean enable) {
+        mService.sendBroadcast(new Intent(ACTION_UPDATE).putExtra("enable", enable));
+    }
+
+    @Test
+    public void rapidTogglesKeepRegistrationsBalanced() {
+        Random random = new Random(0);
+        boolean enabled = false;
+        int transitions = 0;
+        for (int i = 0; i < 500; i++) {
+            // Repeats are as likely as changes
+            boolean enable = random.nextBoolean();
+            if (enable != enabled) {
+                transitions++;
+            }
+            enabled = enable;
+            sendUpdate(enable);
+            // Deliver sometimes right away, sometimes in bursts
+            if (random.nextInt(4) == 0) {
+                Looper.getMainLooper().idle();
+                assertEquals(enabled ? 2 : 1, mService.getRegisteredReceiverCount());
+            }
+        }
+        Looper.getMainLooper().idle();
+
+        assertEquals(enabled ? 2 : 1, mService.getRegisteredReceiverCount());
+        // Only changes reach the framework
+        assertEquals(1 + (transitions + 1) / 2, mService.getRegisterCalls());
+        assertEquals(transitions / 2, mService.getUnregisterCalls());
+    }
+
+    @Test
+    public void repeatedEnableRegistersOnce() {
+        for (int i = 0; i < 200; i++) {
+            sendUpdate(true);
+        }
+        Looper.getMainLooper().idle();
+        assertEquals(2, mService.getRegisteredReceiverCount());
+        assertEquals(2, mService.getRegisterCalls());
+
+        for (int i = 0; i < 200; i++) {
+            sendUpdate(false);
+        }
+        Looper.getMainLooper().idle();
+        assertEquals(1, mService.getRegisteredReceiverCount());
+        assertEquals(1, mService.getUnregisterCalls());
+    }
+
+    @Test
+    public void destroyReleasesEverything() {
+        sendUpdate(true);
+        Looper.getMainLooper().idle();
+        assertEquals(2, mService.getRegisteredReceiverCount());
+
+        mService.onDestroy();
+        assertEquals(0, mService.getRegisteredReceiverCount());
+        assertEquals(2, mService.getUnregisterCalls());
+    }
+
+    @Test
+    public void unregisterOfUnknownReceiverIsNoOp() {
+        Context context = new Context();
+        ReceiverRegistry receivers = new ReceiverRegistry(context);
+        BroadcastReceiver receiver = newReceiver();
+        assertFalse(receivers.unregister(receiver));
+        assertTrue(receivers.register(receiver, new IntentFilter(ACTION_UPDATE)));
+        assertFalse(receivers.register(receiver, new IntentFilter(ACTION_UPDATE)));
+        assertEquals(0, context.getUnregisterCalls());
+        assertEquals(1, context.getRegisterCalls());
+    }
+
+    @Test
+    public void unregisterAllTwiceIsNoOp() {
+        Context context = new Context();
+        ReceiverRegistry receivers = new ReceiverRegistry(context);
+        BroadcastReceiver receiver = newReceiver();
+        receivers.register(receiver, new IntentFilter(ACTION_UPDATE));
+
+        receivers.unregisterAll();
+        assertFalse(receivers.isRegistered(receiver));
+        // e.g. onDestroy() after a failed onCreate()
+        receivers.unregisterAll();
+        assertEquals(1, context.getUnregisterCalls());
+    }
+
+    @Test
+    public void unregisteredReceiverIsReleased() throws InterruptedException {
+        Context context = new Context();
+        ReceiverRegistry receivers = new ReceiverRegistry(context);
+        BroadcastReceiver receiver = newReceiver();
+        WeakReference<BroadcastReceiver> ref = new WeakReference<>(receiver);
+        receivers.register(receiver, new IntentFilter(ACTION_UPDATE));
+        context.sendBroadcast(new Intent(ACTION_UPDATE));
+        Looper.getMainLooper().idle();
+        receivers.unregister(receiver);
+
+        receiver = null;
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    private static BroadcastReceiver newReceiver() {
+        return new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+            }
+        };
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.pocketmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * SysfsWriter against a regular file standing in for the sysfs node.
+ */
+public class SysfsWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mNode;
+    private SysfsWriter mWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        mNode = mFolder.newFile("pocket_node");
+        mWriter = new SysfsWriter(mNode.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.close();
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(mNode.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    private void overwrite(String content) throws IOException {
+        Files.write(mNode.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(out)) {
+            mWriter.dump(pw);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void unchangedValueIsNotWrittenAgain() throws IOException {
+        assertTrue(mWriter.write(true));
+        assertEquals("1\n", read());
+
+        // Anything written behind the writer's back stays, as the value
+        // it last wrote didn't change
+        overwrite("x\n");
+        assertTrue(mWriter.write(true));
+        assertEquals("x\n", read());
+        assertTrue(dump().contains("writes=1 skipped=1 errors=0"));
+    }
+
+    @Test
+    public void valueIsRewrittenInPlace() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(mWriter.write(i % 2 == 0));
+            assertEquals(i % 2 == 0 ? "1\n" : "0\n", read());
+        }
+        assertTrue(dump().contains("writes=10 skipped=0 errors=0"));
+    }
+
+    @Test
+    public void missingNodeIsAnError() throws IOException {
+        assertTrue(mNode.delete());
+        assertFalse(mWriter.write(true));
+        assertFalse(mNode.exists());
+        assertTrue(dump().contains("writes=1 skipped=0 errors=1"));
+
+        // and works again once it is there
+        assertTrue(mNode.createNewFile());
+        assertTrue(mWriter.write(true));
+        assertEquals("1\n", read());
+    }
+
+    @Test
+    public void closeForgetsTheLastValue() throws IOException {
+        assertTrue(mWriter.write(true));
+        overwrite("0\n");
+        mWriter.close();
+        assertTrue(mWriter.write(true));
+        assertEquals("1\n", read());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.sensorhub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Looper;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Registration sharing and event fan-out of the hub. The hub is a process
+ * wide singleton, so every test uses its own sensors of {@link TestDevice}.
+ */
+public class SensorHubTest {
+
+    private static SensorManager sSensorManager;
+    private static SensorHub sHub;
+    private static Looper sHubLooper;
+
+    private static final Sensor SHARED = TestDevice.SHARED;
+    private static final Sensor MERGED = TestDevice.MERGED;
+    private static final Sensor BATCHED = TestDevice.BATCHED;
+    private static final Sensor UNBATCHED = TestDevice.UNBATCHED;
+    private static final Sensor DYNAMIC = new Sensor("test.dynamic", 104, 0);
+    private static final Sensor STALE = new Sensor("test.stale", 105, 0);
+    private static final Sensor RACING = new Sensor("test.racing", 106, 0);
+
+    @BeforeClass
+    public static void setUpClass() {
+        sSensorManager = TestDevice.getSensorManager();
+        sHub = TestDevice.getHub();
+        sHubLooper = sHub.getHandler().getLooper();
+    }
+
+    private static final class CountingListener implements SensorEventListener {
+        int mEvents;
+        float mLastValue;
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            mEvents++;
+            mLastValue = event.values[0];
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+
+    @Test
+    public void sharedSensorIsRegisteredOnce() {
+        CountingListener first = new CountingListener();
+        CountingListener second = new CountingListener();
+        sHub.setEnabled(SHARED, first, true);
+        sHub.setEnabled(SHARED, second, true);
+        sHubLooper.idle();
+        assertEquals(1, sSensorManager.getListenerCount(SHARED));
+
+        sSensorManager.injectEvent(SHARED, 1, 1);
+        sHubLooper.idle();
+        assertEquals(1, first.mEvents);
+        assertEquals(1, second.mEvents);
+
+        sHub.setEnabled(SHARED, first, false);
+        sHubLooper.idle();
+        assertEquals(1, sSensorManager.getListenerCount(SHARED));
+
+        sSensorManager.injectEvent(SHARED, 2, 0);
+        sHubLooper.idle();
+        assertEquals(1, first.mEvents);
+        assertEquals(2, second.mEvents);
+        assertEquals(0, second.mLastValue, 0);
+
+        sHub.setEnabled(SHARED, second, false);
+        sHubLooper.idle();
+        assertEquals(0, sSensorManager.getListenerCount(SHARED));
+    }
+
+    @Test
+    public void burstOfRequestsOnlyAppliesTheLastOne() {
+        CountingListener listener = new CountingListener();
+        int registerCalls = sSensorManager.getRegisterCalls();
+
+        sHub.setEnabled(MERGED, listener, true);
+        sHub.setEnabled(MERGED, listener, false);
+        sHub.setEnabled(MERGED, listener, true);
+        sHubLooper.idle();
+        assertEquals(registerCalls + 1, sSensorManager.getRegisterCalls());
+        assertEquals(1, sSensorManager.getListenerCount(MERGED));
+
+        sHub.setEnabled(MERGED, listener, false);
+        sHub.setEnabled(MERGED, listener, true);
+        sHub.setEnabled(MERGED, listener, false);
+        sHubLooper.idle();
+        assertEquals(registerCalls + 1, sSensorManager.getRegisterCalls());
+        assertEquals(0, sSensorManager.getListenerCount(MERGED));
+    }
+
+    @Test
+    public void lowestRequestedLatencyWins() {
+        CountingListener batching = new CountingListener();
+        CountingListener realtime = new CountingListener();
+
+        sHub.setEnabled(BATCHED, batching, true, 1000000);
+        sHubLooper.idle();
+        assertEquals(1000000, sSensorManager.getReportLatencyUs(BATCHED));
+
+        sHub.setEnabled(BATCHED, realtime, true);
+        sHubLooper.idle();
+        assertEquals(1, sSensorManager.getListenerCount(BATCHED));
+        assertEquals(0, sSensorManager.getReportLatencyUs(BATCHED));
+
+        sHub.setEnabled(BATCHED, realtime, false);
+        sHubLooper.idle();
+        assertEquals(1000000, sSensorManager.getReportLatencyUs(BATCHED));
+
+        sHub.setEnabled(BATCHED, batching, false);
+        sHubLooper.idle();
+        assertEquals(0, sSensorManager.getListenerCount(BATCHED));
+    }
+
+    @Test
+    public void sensorWithoutFifoIsNeverBatched() {
+        CountingListener listener = new CountingListener();
+        sHub.setEnabled(UNBATCHED, listener, true, 1000000);
+        sHubLooper.idle();
+        assertEquals(0, sSensorManager.getReportLatencyUs(UNBATCHED));
+
+        sHub.setEnabled(UNBATCHED, listener, false);
+        sHubLooper.idle();
+    }
+
+    @Test
+    public void sensorLookupsAreServedFromTheIndex() {
+        assertSame(SHARED, sHub.getSensor("test.shared"));
+        int queries = sSensorManager.getSensorListQueries();
+        assertSame(MERGED, sHub.getSensor("test.merged"));
+        assertTrue(sHub.isSensorAvailable("test.batched"));
+        assertFalse(sHub.isSensorAvailable("test.missing"));
+        assertNull(sHub.getSensor(null));
+        assertEquals(queries, sSensorManager.getSensorListQueries());
+    }
+
+    @Test
+    public void dynamicSensorIsFoundOnceConnected() {
+        assertNull(sHub.getSensor("test.dynamic"));
+        sSensorManager.connectDynamicSensor(DYNAMIC);
+        sHubLooper.idle();
+        assertSame(DYNAMIC, sHub.getSensor("test.dynamic"));
+    }
+
+    @Test
+    public void invalidationDuringIndexBuildIsNotLost() throws Exception {
+        // Start without an index
+        sSensorManager.connectDynamicSensor(STALE);
+        sHubLooper.idle();
+
+        // Hold a lookup right after it has read the dynamic sensor list
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        sSensorManager.setDynamicSensorListHook(() -> {
+            reading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread lookup = new Thread(() -> sHub.getSensor("test.stale"));
+        lookup.start();
+        reading.await();
+
+        // Connect a sensor the held lookup has not seen and let the hub
+        // drop the index while the lookup is still building it
+        sSensorManager.connectDynamicSensor(RACING);
+        Thread invalidate = new Thread(sHubLooper::idle);
+        invalidate.start();
+        Thread.sleep(50);
+        release.countDown();
+        lookup.join();
+        invalidate.join();
+
+        assertSame(RACING, sHub.getSensor("test.racing"));
+    }
+
+    @Test
+    public void disabledListenerIsReleased() throws Exception {
+        CountingListener listener = new CountingListener();
+        WeakReference<CountingListener> ref = new WeakReference<>(listener);
+        sHub.setEnabled(SHARED, listener, true);
+        sHubLooper.idle();
+        sHub.setEnabled(SHARED, listener, false);
+        sHubLooper.idle();
+        assertEquals(0, sSensorManager.getListenerCount(SHARED));
+
+        listener = null;
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void reenabledListenerKeepsItsRequest() {
+        CountingListener listener = new CountingListener();
+        sHub.setEnabled(SHARED, listener, true);
+        sHubLooper.idle();
+        sHub.setEnabled(SHARED, listener, false);
+        sHub.setEnabled(SHARED, listener, true);
+        sHubLooper.idle();
+        assertEquals(1, sSensorManager.getListenerCount(SHARED));
+
+        TestDevice.injectEvent(SHARED, 1, 2.0f);
+        assertEquals(1, listener.mEvents);
+
+        sHub.setEnabled(SHARED, listener, false);
+        sHubLooper.idle();
+        assertEquals(0, sSensorManager.getListenerCount(SHARED));
+    }
+}
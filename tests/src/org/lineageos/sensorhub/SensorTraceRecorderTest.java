@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.sensorhub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+import android.os.SystemProperties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The trace ring outlives the process that wrote it, unless its header
+ * doesn't match.
+ */
+public class SensorTraceRecorderTest {
+
+    private static final String PROP_ENABLED = "persist.sys.sensorhub.trace";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private File mTrace;
+
+    @Before
+    public void setUp() {
+        SystemProperties.set(PROP_ENABLED, "true");
+        mContext = new Context(mFolder.getRoot());
+        mTrace = new File(mFolder.getRoot(), "sensor_trace.bin");
+    }
+
+    @After
+    public void tearDown() {
+        SystemProperties.set(PROP_ENABLED, null);
+    }
+
+    private long readCount() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mTrace, "r")) {
+            raf.seek(SensorTraceRecorder.OFFSET_COUNT);
+            return raf.readLong();
+        }
+    }
+
+    private int readSource(long index) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mTrace, "r")) {
+            raf.seek(SensorTraceRecorder.HEADER_SIZE + index * SensorTraceRecorder.RECORD_SIZE + 8);
+            return raf.readInt();
+        }
+    }
+
+    @Test
+    public void disabledByDefault() {
+        SystemProperties.set(PROP_ENABLED, null);
+        assertNull(SensorTraceRecorder.create(mContext));
+    }
+
+    @Test
+    public void ringIsKeptAcrossRestarts() throws IOException {
+        SensorTraceRecorder recorder = SensorTraceRecorder.create(mContext);
+        recorder.record(1000, 42, 1);
+        recorder.record(2000, 42, 0);
+        assertEquals(3, readCount());
+
+        // a new process maps the same file
+        recorder = SensorTraceRecorder.create(mContext);
+        recorder.record(3000, 42, 1);
+        assertEquals(5, readCount());
+        assertEquals(SensorTraceRecorder.SOURCE_PROCESS_START, readSource(0));
+        assertEquals(42, readSource(1));
+        assertEquals(SensorTraceRecorder.SOURCE_PROCESS_START, readSource(3));
+        assertEquals(42, readSource(4));
+    }
+
+    @Test
+    public void ringOfAnotherVersionIsReset() throws IOException {
+        SensorTraceRecorder recorder = SensorTraceRecorder.create(mContext);
+        recorder.record(1000, 42, 1);
+        try (RandomAccessFile raf = new RandomAccessFile(mTrace, "rw")) {
+            raf.seek(4);
+            raf.writeInt(SensorTraceRecorder.VERSION + 1);
+        }
+
+        SensorTraceRecorder.create(mContext);
+        assertEquals(1, readCount());
+        try (RandomAccessFile raf = new RandomAccessFile(mTrace, "r")) {
+            raf.seek(4);
+            assertEquals(SensorTraceRecorder.VERSION, raf.readInt());
+        }
+    }
+
+    @Test
+    public void ringWithCorruptCountIsReset() throws IOException {
+        SensorTraceRecorder.create(mContext);
+        try (RandomAccessFile raf = new RandomAccessFile(mTrace, "rw")) {
+            raf.seek(SensorTraceRecorder.OFFSET_COUNT);
+            raf.writeLong(-5);
+        }
+
+        SensorTraceRecorder.create(mContext);
+        assertEquals(1, readCount());
+    }
+}
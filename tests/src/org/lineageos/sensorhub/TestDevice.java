@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.sensorhub;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.Looper;
+
+/**
+ * The device all host tests run on. SensorHub is a process-wide singleton
+ * that indexes the sensors on first use, so every sensor a test needs is
+ * known up front and all tests share the one hub. Tests must leave the
+ * sensors they enabled disabled again.
+ */
+public final class TestDevice {
+
+    public static final Sensor PICKUP = new Sensor("com.oneplus.sensor.pickup", 33171026, 100);
+    public static final Sensor POCKET = new Sensor("com.oneplus.sensor.pocket", 33171025, 100);
+
+    // Only used by SensorHubTest
+    static final Sensor SHARED = new Sensor("test.shared", 100, 0);
+    static final Sensor MERGED = new Sensor("test.merged", 101, 0);
+    static final Sensor BATCHED = new Sensor("test.batched", 102, 100);
+    static final Sensor UNBATCHED = new Sensor("test.unbatched", 103, 0);
+
+    private static final SensorManager sSensorManager = new SensorManager();
+    private static final SensorHub sHub;
+
+    static {
+        for (Sensor sensor : new Sensor[] { PICKUP, POCKET, SHARED, MERGED, BATCHED, UNBATCHED }) {
+            sSensorManager.addSensor(sensor);
+        }
+        Context context = new Context();
+        context.addSystemService(SensorManager.class, sSensorManager);
+        sHub = SensorHub.getInstance(context);
+    }
+
+    private TestDevice() {
+    }
+
+    public static SensorManager getSensorManager() {
+        return sSensorManager;
+    }
+
+    public static SensorHub getHub() {
+        return sHub;
+    }
+
+    /** Runs everything pending on the hub thread. */
+    public static void idleHub() {
+        sHub.getHandler().getLooper().idle();
+    }
+
+    /** Delivers a sensor event and runs what it triggers, up to the broadcasts sent. */
+    public static void injectEvent(Sensor sensor, long timestampNs, float value) {
+        sSensorManager.injectEvent(sensor, timestampNs, value);
+        idleHub();
+        Looper.getMainLooper().idle();
+    }
+}
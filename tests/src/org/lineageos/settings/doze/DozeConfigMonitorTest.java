@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Debouncing of settings changes into gesture config updates. The monitor
+ * is a process-wide singleton, so every test starts from all gestures off.
+ */
+public class DozeConfigMonitorTest {
+
+    private final Looper mMainLooper = Looper.getMainLooper();
+    private final List<GestureConfig> mUpdates = new ArrayList<>();
+    private final DozeConfigMonitor.Listener mListener =
+            (userId, config) -> mUpdates.add(config);
+
+    private ContentResolver mResolver;
+    private DozeConfigMonitor mMonitor;
+
+    @Before
+    public void setUp() {
+        Context context = new Context();
+        context.getResources().setBoolean(
+                com.android.internal.R.bool.config_dozeAlwaysOnEnabled, false);
+        mResolver = context.getContentResolver();
+        mMonitor = DozeConfigMonitor.start(context);
+        for (String setting : Utils.GESTURE_SETTINGS) {
+            setGesture(setting, false);
+        }
+        mMainLooper.idleFor(1000);
+        mMonitor.addListener(mListener);
+    }
+
+    @After
+    public void tearDown() {
+        mMonitor.removeListener(mListener);
+    }
+
+    private void setGesture(String setting, boolean enabled) {
+        Settings.Secure.putIntForUser(mResolver, setting, enabled ? 1 : 0,
+                UserHandle.USER_CURRENT);
+    }
+
+    @Test
+    public void writesOfOneToggleAreMerged() {
+        setGesture(Utils.GESTURE_SETTINGS[0], true);
+        setGesture(Utils.GESTURE_SETTINGS[1], true);
+        mMainLooper.idleFor(99);
+        assertEquals(0, mUpdates.size());
+
+        mMainLooper.idleFor(1);
+        assertEquals(1, mUpdates.size());
+        assertEquals(new GestureConfig(true, true, false), mUpdates.get(0));
+    }
+
+    @Test
+    public void everyWriteRestartsTheDebounce() {
+        setGesture(Utils.GESTURE_SETTINGS[0], true);
+        mMainLooper.idleFor(60);
+        setGesture(Utils.GESTURE_SETTINGS[2], true);
+        mMainLooper.idleFor(60);
+        assertEquals(0, mUpdates.size());
+
+        mMainLooper.idleFor(40);
+        assertEquals(1, mUpdates.size());
+        assertEquals(new GestureConfig(true, false, true), mUpdates.get(0));
+    }
+
+    @Test
+    public void separateChangesAreReportedSeparately() {
+        setGesture(Utils.GESTURE_SETTINGS[1], true);
+        mMainLooper.idleFor(100);
+        setGesture(Utils.GESTURE_SETTINGS[1], false);
+        mMainLooper.idleFor(100);
+        assertEquals(2, mUpdates.size());
+        assertEquals(GestureConfig.DISABLED, mUpdates.get(1));
+    }
+
+    @Test
+    public void unchangedConfigIsNotReported() {
+        setGesture(Utils.GESTURE_SETTINGS[0], false);
+        Settings.Secure.putInt(mResolver, Settings.Secure.DOZE_ENABLED, 1);
+        mMainLooper.idleFor(1000);
+        assertEquals(0, mUpdates.size());
+    }
+}
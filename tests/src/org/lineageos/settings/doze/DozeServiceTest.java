@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lineageos.sensorhub.TestDevice;
+
+/**
+ * The service with the screen off: gesture toggles come from the snapshot
+ * the config monitor hands out, never from the settings provider.
+ */
+public class DozeServiceTest {
+
+    private static final int SETTLE_MS = 50;
+    private static final int EVENTS = 1000000;
+
+    private static final float NEAR = 1;
+    private static final float FAR = 0;
+
+    private final SensorManager mSensorManager = TestDevice.getSensorManager();
+    private final Looper mMainLooper = Looper.getMainLooper();
+
+    private ContentResolver mResolver;
+    private DozeService mService;
+    private int mPulses;
+
+    @Before
+    public void setUp() {
+        mService = new DozeService();
+        mService.getResources().setInteger(R.integer.config_dozeSensorMaxReportLatencyMs, 0);
+        mService.getResources().setInteger(R.integer.config_dozeScreenStateSettleMs, SETTLE_MS);
+        mService.getResources().setBoolean(
+                com.android.internal.R.bool.config_dozeAlwaysOnEnabled, false);
+        mService.addSystemService(PowerManager.class, new PowerManager());
+        mService.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mPulses++;
+            }
+        }, new IntentFilter("com.android.systemui.doze.pulse"));
+
+        mResolver = mService.getContentResolver();
+        setGesture(Utils.GESTURE_SETTINGS[0], false);
+        setGesture(Utils.GESTURE_SETTINGS[1], true);
+        setGesture(Utils.GESTURE_SETTINGS[2], false);
+
+        mService.onCreate();
+        mService.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        mMainLooper.idleFor(SETTLE_MS);
+        TestDevice.idleHub();
+        assertEquals(1, mSensorManager.getListenerCount(TestDevice.POCKET));
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.PICKUP));
+    }
+
+    @After
+    public void tearDown() {
+        mService.onDestroy();
+        TestDevice.idleHub();
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.POCKET));
+    }
+
+    private void setGesture(String setting, boolean enabled) {
+        Settings.Secure.putIntForUser(mResolver, setting, enabled ? 1 : 0,
+                UserHandle.USER_CURRENT);
+        // Lets the config monitor pick the change up
+        mMainLooper.idleFor(1000);
+    }
+
+    private void event(long delayMs, float value) {
+        mMainLooper.idleFor(delayMs);
+        TestDevice.injectEvent(TestDevice.POCKET, SystemClock.elapsedRealtimeNanos(), value);
+    }
+
+    @Test
+    public void handwavePulsesWithoutReadingSettings() {
+        int reads = mResolver.getSettingReads();
+        event(0, NEAR);
+        event(500, FAR);
+        assertEquals(1, mPulses);
+        assertEquals(reads, mResolver.getSettingReads());
+    }
+
+    @Test
+    public void toggleChangeIsFollowed() {
+        setGesture(Utils.GESTURE_SETTINGS[2], true);
+        int reads = mResolver.getSettingReads();
+
+        // Both proximity gestures pulse for any cover
+        event(0, NEAR);
+        event(5000, FAR);
+        assertEquals(1, mPulses);
+        assertEquals(reads, mResolver.getSettingReads());
+
+        setGesture(Utils.GESTURE_SETTINGS[1], false);
+        setGesture(Utils.GESTURE_SETTINGS[2], false);
+        TestDevice.idleHub();
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.POCKET));
+    }
+
+    @Test
+    public void eventPathDoesNotAllocate() {
+        assumeTrue("JVM can't count allocations", GestureBenchmark.allocatedBytes() >= 0);
+
+        // Covered too long for a hand wave, so every far event reads the
+        // toggles but none sends a pulse
+        SensorEvent event = new SensorEvent(1);
+        event.sensor = TestDevice.POCKET;
+        int reads = mResolver.getSettingReads();
+        feed(event, 10000);
+        long allocated = GestureBenchmark.allocatedBytes();
+        feed(event, EVENTS);
+        allocated = GestureBenchmark.allocatedBytes() - allocated;
+
+        assertEquals(0, mPulses);
+        assertEquals(reads, mResolver.getSettingReads());
+        // Leaves room for the allocations of the measurement itself
+        assertTrue(allocated + " bytes", (double) allocated / EVENTS < 0.01);
+    }
+
+    private void feed(SensorEvent event, int count) {
+        for (int i = 0; i < count; i++) {
+            SystemClock.setUptimeMillis(SystemClock.uptimeMillis() + 1500);
+            event.timestamp = SystemClock.elapsedRealtimeNanos();
+            event.values[0] = i % 2 == 0 ? NEAR : FAR;
+            mSensorManager.dispatchEvent(event);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+
+import com.android.internal.hardware.AmbientDisplayConfiguration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordering of the writes made by the settings screen, and of the states
+ * published while they are applied.
+ */
+public class DozeSettingsRepositoryTest {
+
+    private final Looper mMainLooper = Looper.getMainLooper();
+    private final List<DozeSettingsRepository.State> mStates = new ArrayList<>();
+    private final DozeSettingsRepository.Listener mListener = mStates::add;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private Looper mWorkLooper;
+    private DozeSettingsRepository mRepository;
+
+    @Before
+    public void setUp() {
+        mContext = new Context();
+        mContext.getResources().setBoolean(
+                com.android.internal.R.bool.config_dozeAlwaysOnEnabled, false);
+        AmbientDisplayConfiguration.setAlwaysOnAvailable(true);
+        mResolver = mContext.getContentResolver();
+        Settings.Secure.putInt(mResolver, Settings.Secure.DOZE_ENABLED, 1);
+        Settings.Secure.putIntForUser(mResolver, Settings.Secure.DOZE_ALWAYS_ON, 0,
+                UserHandle.USER_CURRENT);
+        for (String setting : Utils.GESTURE_SETTINGS) {
+            Settings.Secure.putIntForUser(mResolver, setting, 0, UserHandle.USER_CURRENT);
+        }
+
+        mWorkLooper = new HandlerThread("DozeSettingsRepositoryTest").getLooper();
+        mRepository = new DozeSettingsRepository(mContext, new Handler(mWorkLooper));
+        mRepository.addListener(mListener);
+        assertEquals(0, mStates.size());
+        runAll();
+        assertEquals(1, mStates.size());
+    }
+
+    private void runAll() {
+        mWorkLooper.idle();
+        mMainLooper.idle();
+    }
+
+    private DozeSettingsRepository.State last() {
+        return mStates.get(mStates.size() - 1);
+    }
+
+    private int getSetting(String setting) {
+        return Settings.Secure.getIntForUser(mResolver, setting, -1, UserHandle.USER_CURRENT);
+    }
+
+    @Test
+    public void loadsTheCurrentState() {
+        DozeSettingsRepository.State state = last();
+        assertTrue(state.dozeEnabled);
+        assertFalse(state.alwaysOnEnabled);
+        assertTrue(state.alwaysOnAvailable);
+        assertFalse(state.helpShown);
+        assertEquals(GestureConfig.DISABLED, state.gestures);
+    }
+
+    @Test
+    public void writesAreAppliedInOrder() {
+        mRepository.setDozeEnabled(false);
+        mRepository.setDozeEnabled(true);
+        mRepository.setGestureEnabled(Utils.GESTURE_PICK_UP_KEY, true);
+        mRepository.setGestureEnabled(Utils.GESTURE_PICK_UP_KEY, false);
+        mRepository.setGestureEnabled(Utils.GESTURE_HAND_WAVE_KEY, true);
+
+        // Shown right away, written later
+        assertEquals(6, mStates.size());
+        assertEquals(new GestureConfig(false, true, false), last().gestures);
+        assertEquals(0, getSetting(Utils.GESTURE_SETTINGS[1]));
+
+        runAll();
+        assertEquals(1, Settings.Secure.getInt(mResolver, Settings.Secure.DOZE_ENABLED, -1));
+        assertEquals(0, getSetting(Utils.GESTURE_SETTINGS[0]));
+        assertEquals(1, getSetting(Utils.GESTURE_SETTINGS[1]));
+
+        // Read back once, after the last write
+        assertEquals(7, mStates.size());
+        assertTrue(last().dozeEnabled);
+        assertEquals(new GestureConfig(false, true, false), last().gestures);
+    }
+
+    @Test
+    public void loadDuringWritesIsDropped() {
+        // Queues a load ahead of the write
+        mRepository.addListener(state -> { });
+        mRepository.setAlwaysOnEnabled(true);
+        int optimistic = mStates.size();
+        assertTrue(last().alwaysOnEnabled);
+
+        runAll();
+        for (int i = optimistic; i < mStates.size(); i++) {
+            assertTrue(mStates.get(i).alwaysOnEnabled);
+        }
+        assertEquals(1, getSetting(Settings.Secure.DOZE_ALWAYS_ON));
+    }
+
+    @Test
+    public void disablingDozeTurnsAlwaysOnOff() {
+        mRepository.setAlwaysOnEnabled(true);
+        mRepository.setDozeEnabled(false);
+        assertFalse(last().alwaysOnEnabled);
+
+        runAll();
+        assertEquals(0, Settings.Secure.getInt(mResolver, Settings.Secure.DOZE_ENABLED, -1));
+        assertEquals(0, getSetting(Settings.Secure.DOZE_ALWAYS_ON));
+        assertFalse(last().dozeEnabled);
+        assertFalse(last().alwaysOnEnabled);
+    }
+
+    @Test
+    public void helpShownIsKept() {
+        mRepository.setHelpShown();
+        runAll();
+        assertTrue(last().helpShown);
+
+        DozeSettingsRepository repository =
+                new DozeSettingsRepository(mContext, new Handler(mWorkLooper));
+        repository.addListener(mListener);
+        runAll();
+        assertTrue(last().helpShown);
+    }
+}
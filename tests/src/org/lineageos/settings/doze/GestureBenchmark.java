@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.os.PowerManager;
+import android.os.UserHandle;
+
+import org.lineageos.sensorhub.TestDevice;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the throughput and allocations of the pickup and pocket event
+ * handlers on a host, from the sensor hub down to the pulse decision, for
+ * synthetic event storms:
+ *
+ *   java -cp OneplusCommonTests.jar org.lineageos.settings.doze.GestureBenchmark
+ */
+public class GestureBenchmark {
+
+    private static final long MS = 1000L * 1000;
+
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    /** Feeds events to the handlers and returns how many. */
+    public interface Workload {
+        long run(Handlers handlers);
+    }
+
+    public static final class Result {
+        public final String name;
+        public final long events;
+        public final long elapsedNs;
+        // -1 if the JVM can't tell
+        public final long allocatedBytes;
+
+        Result(String name, long events, long elapsedNs, long allocatedBytes) {
+            this.name = name;
+            this.events = events;
+            this.elapsedNs = elapsedNs;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double nsPerEvent() {
+            return (double) elapsedNs / events;
+        }
+
+        public double eventsPerSecond() {
+            return events * 1e9 / elapsedNs;
+        }
+
+        public double bytesPerEvent() {
+            return allocatedBytes < 0 ? -1 : (double) allocatedBytes / events;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-16s %10d events %10.1f ns/event %12.0f events/s %s",
+                    name, events, nsPerEvent(), eventsPerSecond(),
+                    allocatedBytes < 0 ? "allocations n/a"
+                            : String.format("%.3f bytes/event", bytesPerEvent()));
+        }
+    }
+
+    /**
+     * The sensors of DozeService with every gesture enabled, registered with
+     * the hub of {@link TestDevice}. Events are dispatched on the calling
+     * thread and reuse one SensorEvent per sensor, so that whatever is
+     * allocated is allocated by the handlers.
+     */
+    public static final class Handlers {
+        private final VirtualGestureClock mClock = new VirtualGestureClock();
+        private final PickupSensor mPickupSensor;
+        private final PocketSensor mPocketSensor;
+        private final SensorEvent mPickupEvent = newEvent(TestDevice.PICKUP);
+        private final SensorEvent mPocketEvent = newEvent(TestDevice.POCKET);
+        private long mPulses;
+
+        Handlers() {
+            // Pulses are counted rather than broadcast: the broadcast costs
+            // the same however the events were handled
+            Context context = new Context() {
+                @Override
+                public void sendBroadcastAsUser(Intent intent, UserHandle user) {
+                    mPulses++;
+                }
+            };
+            context.getResources().setInteger(R.integer.config_dozeSensorMaxReportLatencyMs, 0);
+            context.addSystemService(PowerManager.class, new PowerManager());
+
+            GestureEngine engine = new GestureEngine(mClock);
+            engine.addRule(new PickupRule());
+            engine.addRule(new ProximityRule(() -> true, () -> true));
+            PulseDispatcher pulseDispatcher = new PulseDispatcher(context, mClock);
+            GestureWakeLock wakeLock = new GestureWakeLock(context, mClock);
+            mPickupSensor = new PickupSensor(context, engine, pulseDispatcher, wakeLock);
+            mPocketSensor = new PocketSensor(context, engine, pulseDispatcher, wakeLock);
+            mPickupSensor.enable();
+            mPocketSensor.enable();
+            TestDevice.idleHub();
+        }
+
+        private static SensorEvent newEvent(Sensor sensor) {
+            SensorEvent event = new SensorEvent(1);
+            event.sensor = sensor;
+            return event;
+        }
+
+        public long now() {
+            return mClock.nowNs();
+        }
+
+        public void pickup(long timestampNs, float value) {
+            dispatch(mPickupEvent, timestampNs, value);
+        }
+
+        public void pocket(long timestampNs, float value) {
+            dispatch(mPocketEvent, timestampNs, value);
+        }
+
+        private void dispatch(SensorEvent event, long timestampNs, float value) {
+            mClock.setNs(timestampNs);
+            event.timestamp = timestampNs;
+            event.values[0] = value;
+            TestDevice.getSensorManager().dispatchEvent(event);
+        }
+
+        public long getPulses() {
+            return mPulses;
+        }
+
+        void close() {
+            mPickupSensor.disable();
+            mPocketSensor.disable();
+            TestDevice.idleHub();
+        }
+    }
+
+    /** A pickup sensor reporting every millisecond. */
+    public static Workload pickupStorm(int events) {
+        return handlers -> {
+            long timestampNs = handlers.now();
+            for (int i = 0; i < events; i++) {
+                timestampNs += MS;
+                handlers.pickup(timestampNs, i & 1);
+            }
+            return events;
+        };
+    }
+
+    /** A pocket sensor flapping between near and far every 300ms. */
+    public static Workload pocketFlapping(int events) {
+        return handlers -> {
+            long timestampNs = handlers.now();
+            for (int i = 0; i < events; i++) {
+                timestampNs += 300 * MS;
+                handlers.pocket(timestampNs, (i & 1) == 0 ? 1 : 0);
+            }
+            return events;
+        };
+    }
+
+    /** Both sensors at once, interleaved. */
+    public static Workload mixedStorm(int events) {
+        return handlers -> {
+            long timestampNs = handlers.now();
+            for (int i = 0; i < events; i++) {
+                timestampNs += MS;
+                if (i % 3 == 0) {
+                    handlers.pocket(timestampNs, (i >> 1) & 1);
+                } else {
+                    handlers.pickup(timestampNs, (i >> 1) & 1);
+                }
+            }
+            return events;
+        };
+    }
+
+    /**
+     * Runs the workload a few times to warm up, then measures it. Every run
+     * gets fresh handlers, created outside of the measurement.
+     */
+    public static Result measure(String name, Workload workload) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            Handlers handlers = new Handlers();
+            workload.run(handlers);
+            handlers.close();
+        }
+
+        long events = 0;
+        long elapsedNs = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            Handlers handlers = new Handlers();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            events += workload.run(handlers);
+            elapsedNs += System.nanoTime() - start;
+            long allocated = allocatedBytes();
+            handlers.close();
+            if (allocatedBefore < 0 || allocated < 0) {
+                allocatedBytes = -1;
+            } else if (allocatedBytes >= 0) {
+                allocatedBytes += allocated - allocatedBefore;
+            }
+        }
+        return new Result(name, events, elapsedNs, allocatedBytes);
+    }
+
+    /** Bytes allocated by the calling thread so far, -1 if the JVM can't tell. */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(measure("pickup storm", pickupStorm(1000000)));
+        System.out.println(measure("pocket flapping", pocketFlapping(1000000)));
+        System.out.println(measure("mixed storm", mixedStorm(1000000)));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+/**
+ * Event handling must not allocate: the sensor hub feeds the handlers at
+ * sensor rate for as long as the screen is off.
+ */
+public class GestureBenchmarkTest {
+
+    private static final int EVENTS = 100000;
+
+    private static void assertNoAllocations(GestureBenchmark.Result result) {
+        assumeTrue("JVM can't count allocations", result.allocatedBytes >= 0);
+        // Leaves room for the allocations of the measurement itself
+        assertTrue(result.toString(), result.bytesPerEvent() < 0.01);
+    }
+
+    @Test
+    public void pickupStormDoesNotAllocate() {
+        GestureBenchmark.Result result = GestureBenchmark.measure(
+                "pickup storm", GestureBenchmark.pickupStorm(EVENTS));
+        assertEquals(10L * EVENTS, result.events);
+        assertNoAllocations(result);
+    }
+
+    @Test
+    public void pocketFlappingDoesNotAllocate() {
+        assertNoAllocations(GestureBenchmark.measure(
+                "pocket flapping", GestureBenchmark.pocketFlapping(EVENTS)));
+    }
+
+    @Test
+    public void mixedStormDoesNotAllocate() {
+        assertNoAllocations(GestureBenchmark.measure(
+                "mixed storm", GestureBenchmark.mixedStorm(EVENTS)));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Pulse windows of the gesture rules, driven through the engine with a
+ * virtual clock.
+ */
+public class GestureEngineTest {
+
+    private static final long MS = 1000L * 1000;
+
+    private static final float NEAR = 1;
+    private static final float FAR = 0;
+
+    private VirtualGestureClock mClock;
+    private GestureEngine mEngine;
+    private PickupRule mPickupRule;
+    private ProximityRule mProximityRule;
+    private boolean mHandwaveEnabled;
+    private boolean mPocketEnabled;
+
+    @Before
+    public void setUp() {
+        mClock = new VirtualGestureClock();
+        mEngine = new GestureEngine(mClock);
+        mPickupRule = new PickupRule();
+        mProximityRule = new ProximityRule(() -> mHandwaveEnabled, () -> mPocketEnabled);
+        mEngine.addRule(mPickupRule);
+        mEngine.addRule(mProximityRule);
+    }
+
+    private GestureRule event(long timestampMs, int sensorId, float value) {
+        mClock.setNs(timestampMs * MS);
+        return mEngine.onEvent(timestampMs * MS, sensorId, value);
+    }
+
+    private GestureRule cover(long nearMs, long farMs) {
+        assertNull(event(nearMs, GestureEngine.SENSOR_POCKET, NEAR));
+        return event(farMs, GestureEngine.SENSOR_POCKET, FAR);
+    }
+
+    @Test
+    public void handwavePulsesUnderOneSecond() {
+        mHandwaveEnabled = true;
+        assertSame(mProximityRule, cover(10000, 10001));
+        assertSame(mProximityRule, cover(20000, 20999));
+        assertNull(cover(30000, 31000));
+        assertNull(cover(40000, 45000));
+    }
+
+    @Test
+    public void pocketPulsesFromTwoSeconds() {
+        mPocketEnabled = true;
+        assertNull(cover(10000, 10500));
+        assertNull(cover(20000, 21999));
+        assertSame(mProximityRule, cover(30000, 32000));
+        assertSame(mProximityRule, cover(40000, 100000));
+    }
+
+    @Test
+    public void bothTogglesPulseForAnyDuration() {
+        mHandwaveEnabled = true;
+        mPocketEnabled = true;
+        assertSame(mProximityRule, cover(10000, 10001));
+        assertSame(mProximityRule, cover(20000, 21500));
+        assertSame(mProximityRule, cover(30000, 90000));
+    }
+
+    @Test
+    public void proximityNeedsEitherToggle() {
+        assertNull(cover(10000, 10500));
+        assertNull(cover(20000, 25000));
+    }
+
+    @Test
+    public void proximityOnlyPulsesWhenLeavingThePocket() {
+        mHandwaveEnabled = true;
+        mPocketEnabled = true;
+        assertNull(event(10000, GestureEngine.SENSOR_POCKET, FAR));
+        assertNull(event(10100, GestureEngine.SENSOR_POCKET, FAR));
+        assertNull(event(10200, GestureEngine.SENSOR_POCKET, NEAR));
+        assertNull(event(10300, GestureEngine.SENSOR_POCKET, NEAR));
+        assertSame(mProximityRule, event(10400, GestureEngine.SENSOR_POCKET, FAR));
+        assertNull(event(10500, GestureEngine.SENSOR_POCKET, FAR));
+    }
+
+    @Test
+    public void coverIsTimedFromTheLastNearEvent() {
+        mHandwaveEnabled = true;
+        assertNull(event(10000, GestureEngine.SENSOR_POCKET, NEAR));
+        assertNull(event(10900, GestureEngine.SENSOR_POCKET, NEAR));
+        assertSame(mProximityRule, event(11200, GestureEngine.SENSOR_POCKET, FAR));
+    }
+
+    @Test
+    public void pickupRearmsTwoAndAHalfSecondsAfterEnable() {
+        mClock.setNs(10000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+
+        assertNull(event(10000, GestureEngine.SENSOR_PICKUP, 1));
+        assertNull(event(12499, GestureEngine.SENSOR_PICKUP, 1));
+        assertSame(mPickupRule, event(12500, GestureEngine.SENSOR_PICKUP, 1));
+        // the pulse starts a new window
+        assertNull(event(14999, GestureEngine.SENSOR_PICKUP, 1));
+        assertSame(mPickupRule, event(15000, GestureEngine.SENSOR_PICKUP, 1));
+    }
+
+    @Test
+    public void pickupEnableRestartsTheWindow() {
+        mClock.setNs(10000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        assertSame(mPickupRule, event(13000, GestureEngine.SENSOR_PICKUP, 1));
+
+        // the sensor reports its current state right after being enabled
+        mClock.setNs(20000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        assertNull(event(20010, GestureEngine.SENSOR_PICKUP, 1));
+        assertNull(event(22499, GestureEngine.SENSOR_PICKUP, 1));
+        assertSame(mPickupRule, event(22500, GestureEngine.SENSOR_PICKUP, 1));
+    }
+
+    @Test
+    public void pickupPutDownClaimsTheWindowWithoutPulsing() {
+        mClock.setNs(10000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        assertNull(event(13000, GestureEngine.SENSOR_PICKUP, 0));
+        assertNull(event(14000, GestureEngine.SENSOR_PICKUP, 1));
+        assertSame(mPickupRule, event(15500, GestureEngine.SENSOR_PICKUP, 1));
+    }
+
+    @Test
+    public void enablingOneSensorDoesNotRearmTheOther() {
+        mClock.setNs(10000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        mClock.setNs(12000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        assertSame(mPickupRule, event(12500, GestureEngine.SENSOR_PICKUP, 1));
+    }
+
+    @Test
+    public void sensorTimestampsAreConvertedToTheClock() {
+        // the sensor stamps events 5s behind the clock
+        mClock.setSensorOffsetNs(5000 * MS);
+        mClock.setNs(10000 * MS);
+        mEngine.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+
+        // 7400ms sensor time is 12400ms clock time, still in the window
+        assertNull(mEngine.onEvent(7400 * MS, GestureEngine.SENSOR_PICKUP, 1));
+        assertSame(mPickupRule, mEngine.onEvent(7500 * MS, GestureEngine.SENSOR_PICKUP, 1));
+    }
+
+    @Test
+    public void firstRuleToPulseIsReturned() {
+        GestureRule always = new GestureRule() {
+            @Override
+            public String getName() {
+                return "always";
+            }
+
+            @Override
+            public boolean onEvent(long timestampNs, int sensorId, float value) {
+                return true;
+            }
+        };
+        mHandwaveEnabled = true;
+        assertNull(event(10000, GestureEngine.SENSOR_POCKET, NEAR));
+        mEngine.addRule(always);
+        // both want to pulse, the earlier rule wins and both saw the event
+        assertSame(mProximityRule, event(10500, GestureEngine.SENSOR_POCKET, FAR));
+        mEngine.removeRule(mProximityRule);
+        assertSame(always, event(11000, GestureEngine.SENSOR_POCKET, FAR));
+    }
+}
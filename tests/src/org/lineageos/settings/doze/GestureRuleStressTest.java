@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hammers the lock-free state of the rules from many threads at once, as
+ * happens when two listeners of a shared sensor race.
+ */
+public class GestureRuleStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20000;
+
+    private static final long MS = 1000L * 1000;
+    private static final long START_NS = 1000000 * MS;
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runConcurrently(Worker worker) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(thread);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void everyPocketExitConsumesItsOwnNear() throws Exception {
+        ProximityRule rule = new ProximityRule(() -> true, () -> true);
+        AtomicLong nears = new AtomicLong();
+        AtomicLong pulses = new AtomicLong();
+
+        // More far than near events, so that racing far events could
+        // only all pulse if they shared a near
+        runConcurrently(thread -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                long timestampNs = START_NS + i * MS;
+                rule.onEvent(timestampNs, GestureEngine.SENSOR_POCKET, 1);
+                nears.incrementAndGet();
+                for (int j = 1; j <= 3; j++) {
+                    if (rule.onEvent(timestampNs + j, GestureEngine.SENSOR_POCKET, 0)) {
+                        pulses.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        assertTrue(pulses.get() > 0);
+        assertTrue(pulses.get() + " pulses for " + nears.get() + " near events",
+                pulses.get() <= nears.get());
+    }
+
+    @Test
+    public void pocketStateIsNeverTorn() throws Exception {
+        // Every event is within 1.9s of every other one, so only a near
+        // flag paired with a timestamp that was never fed could pulse
+        ProximityRule rule = new ProximityRule(() -> false, () -> true);
+        AtomicLong pulses = new AtomicLong();
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < ROUNDS * 4; i++) {
+                long timestampNs = START_NS + random.nextLong(1900 * MS);
+                if (rule.onEvent(timestampNs, GestureEngine.SENSOR_POCKET,
+                        random.nextBoolean() ? 1 : 0)) {
+                    pulses.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(0, pulses.get());
+
+        // and the rule still works once the threads are gone
+        assertFalse(rule.onEvent(START_NS + 10000 * MS, GestureEngine.SENSOR_POCKET, 1));
+        assertTrue(rule.onEvent(START_NS + 12000 * MS, GestureEngine.SENSOR_POCKET, 0));
+    }
+
+    @Test
+    public void pickupPulsesAtMostOncePerWindow() throws Exception {
+        PickupRule rule = new PickupRule();
+        rule.onSensorEnabled(GestureEngine.SENSOR_PICKUP, START_NS);
+        List<Long> pulses = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong clockNs = new AtomicLong(START_NS);
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                // Threads share a clock moving 1ms per event, but deliver
+                // their events out of order with each other
+                long timestampNs = clockNs.addAndGet(MS);
+                if (rule.onEvent(timestampNs, GestureEngine.SENSOR_PICKUP, 1)) {
+                    pulses.add(timestampNs);
+                }
+            }
+        });
+
+        List<Long> sorted = new ArrayList<>(pulses);
+        Collections.sort(sorted);
+        assertTrue(sorted.size() > 1);
+        assertTrue(sorted.get(0) - START_NS >= 2500 * MS);
+        for (int i = 1; i < sorted.size(); i++) {
+            long gapNs = sorted.get(i) - sorted.get(i - 1);
+            assertTrue("pulses " + gapNs / MS + "ms apart", gapNs >= 2500 * MS);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Timeout and hold accounting of the gesture wakelock, on a virtual clock.
+ */
+public class GestureWakeLockTest {
+
+    private static final long US = 1000;
+
+    private VirtualGestureClock mClock;
+    private PowerManager.WakeLock mWakeLock;
+    private GestureWakeLock mGestureWakeLock;
+
+    @Before
+    public void setUp() {
+        Context context = new Context();
+        PowerManager powerManager = new PowerManager();
+        context.addSystemService(PowerManager.class, powerManager);
+        mClock = new VirtualGestureClock();
+        mGestureWakeLock = new GestureWakeLock(context, mClock);
+        mWakeLock = powerManager.getWakeLock("OneplusDoze:Gesture");
+    }
+
+    private void hold(int sensorId, long us) {
+        long start = mGestureWakeLock.acquire();
+        assertTrue(mWakeLock.isHeld());
+        mClock.advanceNs(us * US);
+        mGestureWakeLock.release(sensorId, start);
+        assertFalse(mWakeLock.isHeld());
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        mGestureWakeLock.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void heldWithTimeout() {
+        mGestureWakeLock.acquire();
+        assertEquals(1000, mWakeLock.getLastTimeoutMs());
+
+        // Processing got stuck, the wakelock is let go anyway
+        SystemClock.setUptimeMillis(SystemClock.uptimeMillis() + 1000);
+        assertFalse(mWakeLock.isHeld());
+    }
+
+    @Test
+    public void lateReleaseIsHarmless() {
+        long start = mGestureWakeLock.acquire();
+        SystemClock.setUptimeMillis(SystemClock.uptimeMillis() + 2000);
+        mClock.advanceNs(2000000 * US);
+        // Not reference counted, so this doesn't throw
+        mGestureWakeLock.release(GestureEngine.SENSOR_PICKUP, start);
+        assertTrue(dump(), dump().contains("pickup: holds=1 total=2000000us max=2000000us"));
+        assertTrue(dump(), dump().contains(" >=524288us:1"));
+    }
+
+    @Test
+    public void holdsAreAccountedPerSensor() {
+        hold(GestureEngine.SENSOR_PICKUP, 0);
+        hold(GestureEngine.SENSOR_PICKUP, 300);
+        hold(GestureEngine.SENSOR_PICKUP, 400);
+        hold(GestureEngine.SENSOR_POCKET, 5000);
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("pickup: holds=3 total=700us max=400us"));
+        assertTrue(dump, dump.contains("    <1us:1 <512us:2\n"));
+        assertTrue(dump, dump.contains("pocket: holds=1 total=5000us max=5000us"));
+        assertTrue(dump, dump.contains("    <8192us:1\n"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.SensorManager;
+import android.os.PowerManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lineageos.sensorhub.TestDevice;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Pickup events delivered through the hub, up to the pulse broadcast.
+ */
+public class PickupSensorTest {
+
+    private static final long MS = 1000L * 1000;
+
+    private static final float PICKED_UP = 1;
+    private static final float PUT_DOWN = 0;
+
+    private final SensorManager mSensorManager = TestDevice.getSensorManager();
+
+    private Context mContext;
+    private PowerManager mPowerManager;
+    private VirtualGestureClock mClock;
+    private GestureWakeLock mWakeLock;
+    private PickupSensor mPickupSensor;
+    private int mPulses;
+
+    @Before
+    public void setUp() {
+        mContext = new Context();
+        mContext.getResources().setInteger(R.integer.config_dozeSensorMaxReportLatencyMs, 200);
+        mPowerManager = new PowerManager();
+        mContext.addSystemService(PowerManager.class, mPowerManager);
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mPulses++;
+            }
+        }, new IntentFilter("com.android.systemui.doze.pulse"));
+
+        mClock = new VirtualGestureClock();
+        mClock.setNs(10000 * MS);
+        GestureEngine engine = new GestureEngine(mClock);
+        engine.addRule(new PickupRule());
+        mWakeLock = new GestureWakeLock(mContext, mClock);
+        mPickupSensor = new PickupSensor(mContext, engine,
+                new PulseDispatcher(mContext, mClock), mWakeLock);
+        mPickupSensor.enable();
+        TestDevice.idleHub();
+    }
+
+    @After
+    public void tearDown() {
+        mPickupSensor.disable();
+        TestDevice.idleHub();
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.PICKUP));
+    }
+
+    private void event(long timestampMs, float value) {
+        mClock.setNs(timestampMs * MS);
+        TestDevice.injectEvent(TestDevice.PICKUP, timestampMs * MS, value);
+    }
+
+    @Test
+    public void registersWithConfiguredLatency() {
+        assertEquals(1, mSensorManager.getListenerCount(TestDevice.PICKUP));
+        assertEquals(200 * 1000, mSensorManager.getReportLatencyUs(TestDevice.PICKUP));
+    }
+
+    @Test
+    public void pickupPulsesOncePerInterval() {
+        // Too close to enabling the sensor
+        event(12000, PICKED_UP);
+        assertEquals(0, mPulses);
+
+        event(12500, PICKED_UP);
+        assertEquals(1, mPulses);
+
+        event(14000, PICKED_UP);
+        assertEquals(1, mPulses);
+
+        event(15000, PICKED_UP);
+        assertEquals(2, mPulses);
+    }
+
+    @Test
+    public void putDownDoesNotPulse() {
+        event(20000, PUT_DOWN);
+        assertEquals(0, mPulses);
+    }
+
+    @Test
+    public void batchedEventsAreDebouncedByTimestamp() {
+        // Both events arrive in one batch, long after they happened
+        mClock.setNs(30000 * MS);
+        TestDevice.injectEvent(TestDevice.PICKUP, 12500 * MS, PICKED_UP);
+        TestDevice.injectEvent(TestDevice.PICKUP, 13000 * MS, PICKED_UP);
+        assertEquals(1, mPulses);
+    }
+
+    @Test
+    public void wakeLockIsHeldPerEvent() {
+        PowerManager.WakeLock wakeLock = mPowerManager.getWakeLock("OneplusDoze:Gesture");
+        event(12500, PICKED_UP);
+        event(20000, PUT_DOWN);
+
+        assertFalse(wakeLock.isHeld());
+        assertEquals(2, wakeLock.getAcquireCalls());
+        assertEquals(1000, wakeLock.getLastTimeoutMs());
+
+        StringWriter out = new StringWriter();
+        mWakeLock.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("pickup: holds=2"));
+        assertTrue(out.toString(), out.toString().contains("pocket: holds=0"));
+    }
+}
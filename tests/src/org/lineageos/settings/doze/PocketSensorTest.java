@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.SensorManager;
+import android.os.PowerManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lineageos.sensorhub.TestDevice;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Hand wave and pocket events delivered through the hub, up to the pulse
+ * broadcast.
+ */
+public class PocketSensorTest {
+
+    private static final long MS = 1000L * 1000;
+
+    private static final float NEAR = 1;
+    private static final float FAR = 0;
+
+    private final SensorManager mSensorManager = TestDevice.getSensorManager();
+
+    private Context mContext;
+    private VirtualGestureClock mClock;
+    private GestureWakeLock mWakeLock;
+    private PocketSensor mPocketSensor;
+    private volatile boolean mHandwaveEnabled;
+    private volatile boolean mPocketEnabled;
+    private int mPulses;
+
+    @Before
+    public void setUp() {
+        mContext = new Context();
+        mContext.getResources().setInteger(R.integer.config_dozeSensorMaxReportLatencyMs, 0);
+        mContext.addSystemService(PowerManager.class, new PowerManager());
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mPulses++;
+            }
+        }, new IntentFilter("com.android.systemui.doze.pulse"));
+
+        mClock = new VirtualGestureClock();
+        mClock.setNs(10000 * MS);
+        GestureEngine engine = new GestureEngine(mClock);
+        engine.addRule(new ProximityRule(() -> mHandwaveEnabled, () -> mPocketEnabled));
+        mWakeLock = new GestureWakeLock(mContext, mClock);
+        mPocketSensor = new PocketSensor(mContext, engine,
+                new PulseDispatcher(mContext, mClock), mWakeLock);
+        mPocketSensor.enable();
+        TestDevice.idleHub();
+    }
+
+    @After
+    public void tearDown() {
+        mPocketSensor.disable();
+        TestDevice.idleHub();
+        assertEquals(0, mSensorManager.getListenerCount(TestDevice.POCKET));
+    }
+
+    private void cover(long nearMs, long farMs) {
+        event(nearMs, NEAR);
+        event(farMs, FAR);
+    }
+
+    private void event(long timestampMs, float value) {
+        mClock.setNs(timestampMs * MS);
+        TestDevice.injectEvent(TestDevice.POCKET, timestampMs * MS, value);
+    }
+
+    @Test
+    public void registersUnbatchedWhenNotConfigured() {
+        assertEquals(1, mSensorManager.getListenerCount(TestDevice.POCKET));
+        assertEquals(0, mSensorManager.getReportLatencyUs(TestDevice.POCKET));
+    }
+
+    @Test
+    public void handwavePulses() {
+        mHandwaveEnabled = true;
+        cover(20000, 20500);
+        assertEquals(1, mPulses);
+        cover(30000, 35000);
+        assertEquals(1, mPulses);
+    }
+
+    @Test
+    public void leavingPocketPulses() {
+        mPocketEnabled = true;
+        cover(20000, 20500);
+        assertEquals(0, mPulses);
+        cover(30000, 35000);
+        assertEquals(1, mPulses);
+    }
+
+    @Test
+    public void nothingPulsesWhenGesturesAreOff() {
+        cover(20000, 20500);
+        cover(30000, 35000);
+        assertEquals(0, mPulses);
+
+        StringWriter out = new StringWriter();
+        mWakeLock.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("pocket: holds=4"));
+    }
+}
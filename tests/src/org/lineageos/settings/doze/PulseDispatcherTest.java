@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalescing and rate limiting of doze pulses, on a virtual clock.
+ */
+public class PulseDispatcherTest {
+
+    private static final long MS = 1000L * 1000;
+
+    private VirtualGestureClock mClock;
+    private PulseDispatcher mDispatcher;
+    private final List<Intent> mPulses = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = new Context();
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mPulses.add(intent);
+            }
+        }, new IntentFilter("com.android.systemui.doze.pulse"));
+
+        mClock = new VirtualGestureClock();
+        mClock.setNs(10000 * MS);
+        mDispatcher = new PulseDispatcher(context, mClock);
+    }
+
+    private boolean request(long timeMs) {
+        mClock.setNs(timeMs * MS);
+        boolean sent = mDispatcher.requestPulse();
+        Looper.getMainLooper().idle();
+        return sent;
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        mDispatcher.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void simultaneousGesturesPulseOnce() {
+        // A hand wave and a pickup reported together
+        assertTrue(request(10000));
+        assertFalse(request(10000));
+        assertFalse(request(10499));
+        assertEquals(1, mPulses.size());
+        assertTrue(dump(), dump().contains("requested=3 sent=1 suppressed=2"
+                + " (coalesced=2 rate limited=0)"));
+    }
+
+    @Test
+    public void pulsesAfterTheCoalescingWindow() {
+        assertTrue(request(10000));
+        assertTrue(request(10500));
+        assertEquals(2, mPulses.size());
+    }
+
+    @Test
+    public void burstIsRateLimited() {
+        assertTrue(request(10000));
+        assertTrue(request(10600));
+        assertTrue(request(11200));
+        // The bucket is empty until the first refill at 12000
+        assertFalse(request(11800));
+        assertTrue(request(12000));
+        assertFalse(request(12600));
+        assertEquals(4, mPulses.size());
+        assertTrue(dump(), dump().contains("requested=6 sent=4 suppressed=2"
+                + " (coalesced=0 rate limited=2)"));
+    }
+
+    @Test
+    public void bucketRefillsUpToItsCapacity() {
+        assertTrue(request(10000));
+        // Long enough for any number of refills, only three are kept
+        for (int i = 0; i < 3; i++) {
+            assertTrue(request(100000 + i * 500));
+        }
+        assertFalse(request(101500));
+    }
+
+    @Test
+    public void theIntentIsReused() {
+        request(10000);
+        request(20000);
+        assertEquals(2, mPulses.size());
+        assertSame(mPulses.get(0), mPulses.get(1));
+        assertEquals("com.android.systemui.doze.pulse", mPulses.get(0).getAction());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.settings.doze;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.SystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Conversion of sensor timestamps by the system clock: only timestamps
+ * that can't be in the elapsed realtime timebase move the offset.
+ */
+public class SystemGestureClockTest {
+
+    private static final long MS = 1000L * 1000;
+
+    private static final long START_MS = 100000;
+
+    private SystemGestureClock mClock;
+
+    @Before
+    public void setUp() {
+        SystemClock.setUptimeMillis(START_MS);
+        mClock = new SystemGestureClock(0);
+    }
+
+    private long convert(long timestampMs) {
+        return convert(GestureEngine.SENSOR_POCKET, timestampMs);
+    }
+
+    private long convert(int sensorId, long timestampMs) {
+        return mClock.fromSensorTimestamp(sensorId, timestampMs * MS) / MS;
+    }
+
+    @Test
+    public void flushAfterSuspendKeepsEventSpacing() {
+        mClock.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        // near and far batched while suspended, delivered 10s later
+        SystemClock.setUptimeMillis(START_MS + 10000);
+        assertEquals(START_MS, convert(START_MS));
+        assertEquals(START_MS + 3000, convert(START_MS + 3000));
+    }
+
+    @Test
+    public void futureTimestampMovesTheOffset() {
+        assertEquals(START_MS, convert(START_MS + 5000));
+        SystemClock.setUptimeMillis(START_MS + 100);
+        assertEquals(START_MS + 100, convert(START_MS + 5100));
+    }
+
+    @Test
+    public void timestampFromBeforeEnableMovesTheOffset() {
+        mClock.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        // a clock that stopped for a minute in suspend
+        assertEquals(START_MS, convert(START_MS - 60000));
+        SystemClock.setUptimeMillis(START_MS + 5000);
+        assertEquals(START_MS + 2000, convert(START_MS - 58000));
+        assertEquals(START_MS + 4000, convert(START_MS - 56000));
+    }
+
+    @Test
+    public void sharedRegistrationEventsWithinSlackAreKept() {
+        mClock.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        assertEquals(START_MS - 900, convert(START_MS - 900));
+    }
+
+    @Test
+    public void enableOfAnotherSensorIsNotABound() {
+        SystemClock.setUptimeMillis(START_MS + 60000);
+        mClock.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        assertEquals(START_MS, convert(START_MS));
+    }
+
+    @Test
+    public void sensorsKeepTheirOwnOffsets() {
+        mClock.onSensorEnabled(GestureEngine.SENSOR_POCKET);
+        mClock.onSensorEnabled(GestureEngine.SENSOR_PICKUP);
+        // pocket on a clock that stopped for a minute in suspend, pickup
+        // on elapsed realtime and batched for half a second
+        assertEquals(START_MS, convert(GestureEngine.SENSOR_POCKET, START_MS - 60000));
+        assertEquals(START_MS - 500, convert(GestureEngine.SENSOR_PICKUP, START_MS - 500));
+        SystemClock.setUptimeMillis(START_MS + 3000);
+        assertEquals(START_MS + 1000, convert(GestureEngine.SENSOR_POCKET, START_MS - 59000));
+        assertEquals(START_MS + 2500, convert(GestureEngine.SENSOR_PICKUP, START_MS + 2500));
+        assertEquals(START_MS + 3000, convert(GestureEngine.SENSOR_POCKET, START_MS - 57000));
+        assertEquals(START_MS + 3000, convert(GestureEngine.SENSOR_PICKUP, START_MS + 3000));
+    }
+}